@@ -0,0 +1,67 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for building a dungeon level: generating the raw map, converting
+ * it to tiles, collecting spawn points and spawning monsters.
+ * @author prtrundl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GenerationBenchmark {
+
+    private GameEngine engine;
+
+    private final LevelGenerator generator = new CaveGenerator();
+
+    @Setup
+    public void setup() {
+        engine = new GameEngine(new HeadlessRenderer());
+    }
+
+    @Benchmark
+    public TileGrid generateMap() {
+        engine.generateMap(GameEngine.DUNGEON_HEIGHT, GameEngine.DUNGEON_WIDTH);
+        return engine.tiles;
+    }
+
+    /**
+     * Fetches the current level, which after the first call is copied from the
+     * level cache
+     */
+    @Benchmark
+    public TileGrid generateLevel() {
+        return engine.generateLevel();
+    }
+
+    /**
+     * Generates the level from its seed and depth without using the cache
+     */
+    @Benchmark
+    public TileGrid generateLevelUncached() {
+        return GameEngine.generateLevel(engine.getSeed(), 1, generator);
+    }
+
+    @Benchmark
+    public SpawnIndex getSpawns() {
+        return engine.getSpawns();
+    }
+
+    /**
+     * Refills the spawn index before spawning, as spawning uses up spawn points
+     */
+    @Benchmark
+    public MonsterStore spawnMonsters() {
+        engine.getSpawns();
+        return engine.spawnMonsters(GameEngine.MAX_MONSTERS);
+    }
+}
@@ -0,0 +1,46 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks each LevelGenerator on a level the size of the game's and on a
+ * 4096 by 4096 tile level.
+ * @author prtrundl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LevelGeneratorBenchmark {
+
+    @Param({"noise", "cave", "bsp"})
+    public String generator;
+
+    @Param({"25", "4096"})
+    public int size;
+
+    private LevelGenerator levelGenerator;
+    private final Random r = new Random(123);
+
+    @Setup
+    public void setup() {
+        switch (generator) {
+            case "noise": levelGenerator = new NoiseGenerator(); break;
+            case "bsp": levelGenerator = new BspGenerator(); break;
+            default: levelGenerator = new CaveGenerator(); break;
+        }
+    }
+
+    @Benchmark
+    public TileGrid generate() {
+        return levelGenerator.generate(size, size, r);
+    }
+}
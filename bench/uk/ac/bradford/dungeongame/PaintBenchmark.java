@@ -0,0 +1,70 @@
+package uk.ac.bradford.dungeongame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks drawing a whole dungeon level with Canvas.drawDungeon into an
+ * offscreen image the same size as the game window, a full paintComponent
+ * including the background, and rebuilding the cached tile layer that is drawn
+ * once per level. Run with -prof gc to see what painting allocates
+ * (gc.alloc.rate.norm close to 0 bytes per operation); the alloc-check Ant
+ * target fails the build if a turn and its painting allocate. Must be run from the
+ * project folder, or with the built classes, so that the tile images can be
+ * loaded.
+ * @author prtrundl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaintBenchmark {
+
+    private Canvas canvas;
+    private BufferedImage image;
+    private Graphics2D g2;
+
+    @Setup
+    public void setup() {
+        canvas = new Canvas();
+        canvas.setSize(GameEngine.DUNGEON_WIDTH * GameGUI.TILE_WIDTH,
+                GameEngine.DUNGEON_HEIGHT * GameGUI.TILE_HEIGHT);
+        GameEngine engine = new GameEngine(canvas::publish);
+        engine.startGame(GameEngine.MAX_MONSTERS);
+        canvas.takeScene();     //this thread draws, so it takes the scene itself
+        image = new BufferedImage(GameEngine.DUNGEON_WIDTH * GameGUI.TILE_WIDTH,
+                GameEngine.DUNGEON_HEIGHT * GameGUI.TILE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g2 = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage drawDungeon() {
+        canvas.drawDungeon(g2);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent() {
+        canvas.paintComponent(g2);
+        return image;
+    }
+
+    @Benchmark
+    public Canvas renderTileLayer() {
+        canvas.renderTileLayer();
+        return canvas;
+    }
+}
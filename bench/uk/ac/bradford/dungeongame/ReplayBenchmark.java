@@ -0,0 +1,55 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks replaying a whole recorded game, so doTurn() is measured with the
+ * moves a real player made. The journal to replay is given with
+ * -p journal=file; without one a game of random moves is recorded and replayed.
+ * @author prtrundl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+
+    @Param({""})
+    public String journal;
+
+    private InputJournal.Session session;
+
+    @Setup
+    public void setup() throws IOException {
+        if (!journal.isEmpty()) {
+            session = InputJournal.read(Paths.get(journal));
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputJournal recording = new InputJournal(bytes, 123, 10);
+        Random moves = new Random(123);
+        for (int i = 0; i < 10000; i++)
+            recording.record(moves.nextInt(4));
+        recording.close();
+        session = InputJournal.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Benchmark
+    public GameEngine replay() throws IOException {
+        GameEngine engine = new GameEngine(new HeadlessRenderer());
+        session.replay(engine);
+        return engine;
+    }
+}
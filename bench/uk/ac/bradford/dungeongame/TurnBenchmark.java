@@ -0,0 +1,41 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks a single call to doTurn() with different numbers of monsters on
+ * the level, up to and beyond MAX_MONSTERS. The player does not move, so the
+ * monsters close in and attack it; when it dies the game restarts with the
+ * same number of monsters.
+ * @author prtrundl
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TurnBenchmark {
+
+    @Param({"1", "10", "40", "100"})
+    public int monsters;
+
+    private GameEngine engine;
+
+    @Setup
+    public void setup() {
+        engine = new GameEngine(new HeadlessRenderer());
+        engine.setExitOnDeath(false);
+        engine.startGame(monsters);
+    }
+
+    @Benchmark
+    public void doTurn() {
+        engine.doTurn();
+    }
+}
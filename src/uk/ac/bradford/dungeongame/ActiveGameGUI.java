@@ -0,0 +1,278 @@
+package uk.ac.bradford.dungeongame;
+
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Toolkit;
+import java.awt.Transparency;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JFrame;
+
+/**
+ * The ActiveGameGUI class is an alternative to GameGUI that uses active rendering.
+ * Instead of asking Swing to repaint a panel, a dedicated render thread draws
+ * complete frames into a BufferStrategy at a fixed frame rate. The tiles of the
+ * level are kept in a VolatileImage so they can stay in video memory, and tile
+ * images are converted to the format of the screen. The game thread publishes
+ * each turn to an internal Canvas object, and the render thread takes the
+ * newest copy from it at the start of each frame and uses it to draw.
+ * @author prtrundl
+ */
+public class ActiveGameGUI extends JFrame implements GameRenderer {
+
+    /**
+     * The frame rate used when none is given to the constructor
+     */
+    public static final int DEFAULT_FPS = 60;
+
+    /**
+     * The AWT component that frames are drawn onto. The fully qualified name is
+     * needed because this package has its own Canvas class.
+     */
+    private java.awt.Canvas surface;
+
+    /**
+     * Holds copies of the tiles, player and monsters to draw, along with the
+     * tile images and cached tile layer
+     */
+    private final Canvas scene = new Canvas();
+
+    /**
+     * Copy of the scene's tile layer in video memory, and the tile layer render
+     * count it was last copied from
+     */
+    private VolatileImage tileVolatile;
+    private int tileVolatileRenders = -1;
+
+    /**
+     * The time between frames in nanoseconds
+     */
+    private final long frameNanos;
+
+    /**
+     * The metrics drawing each frame is timed into, or null
+     */
+    private volatile TurnMetrics metrics;
+
+    /**
+     * The real-time game loop, used to draw entities moving smoothly between
+     * tiles, or null when the game advances one turn per key press
+     */
+    private volatile GameLoop loop;
+
+    private Thread renderThread;
+    private volatile boolean running;
+    private volatile long frames;
+
+    /**
+     * Creates an active rendering window drawing at DEFAULT_FPS
+     */
+    public ActiveGameGUI() {
+        this(DEFAULT_FPS);
+    }
+
+    /**
+     * Creates an active rendering window
+     * @param fps The number of frames per second the render thread should draw
+     */
+    public ActiveGameGUI(int fps) {
+        frameNanos = 1000000000L / fps;
+        initGUI();
+    }
+
+    /**
+     * Creates the drawing surface and sets up the window. Repaint requests from
+     * the operating system are ignored because the render thread redraws every frame.
+     */
+    private void initGUI() {
+        surface = new java.awt.Canvas();
+        surface.setIgnoreRepaint(true);
+        surface.setFocusable(false);        //key events go to the frame
+        surface.setPreferredSize(new Dimension(GameEngine.DUNGEON_WIDTH * GameGUI.TILE_WIDTH,
+                GameEngine.DUNGEON_HEIGHT * GameGUI.TILE_HEIGHT));
+        add(surface);
+        setIgnoreRepaint(true);
+        setTitle("Dungeon");
+        setResizable(false);
+        pack();
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_F3)
+                    scene.toggleOverlay();
+            }
+        });
+    }
+
+    /**
+     * Registers an object to be passed keyboard events captured by the window.
+     * @param i the DungeonInputHandler object that will process keyboard events
+     */
+    public void registerKeyHandler(DungeonInputHandler i) {
+        addKeyListener(i);
+    }
+
+    /**
+     * Sets the metrics shown by the timing overlay, which F3 shows and hides.
+     * Drawing each frame is timed into the same metrics.
+     * @param metrics The metrics of the engine being displayed
+     */
+    public void setMetrics(TurnMetrics metrics) {
+        scene.setMetrics(metrics);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the real-time game loop that entity movement is interpolated with
+     * @param loop The running game loop, or null to draw entities in their tiles
+     */
+    public void setGameLoop(GameLoop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Publishes a copy of the new game state, which the render thread draws
+     * from its next frame.
+     * @param tiles The tiles of the current level
+     * @param view The player's field of view, or null
+     * @param player The current player, or null
+     * @param monsters The current monsters, or null
+     */
+    @Override
+    public void updateDisplay(TileGrid tiles, FieldOfView view, Entity player, MonsterStore monsters) {
+        scene.publish(tiles, view, player, monsters);
+    }
+
+    /**
+     * Starts the render thread. The window must be visible before this is called
+     * so that a BufferStrategy can be created for it.
+     */
+    public void start() {
+        if (running)
+            return;
+        surface.createBufferStrategy(2);
+        scene.useCompatibleImages(surface.getGraphicsConfiguration());
+        running = true;
+        renderThread = new Thread(this::renderLoop, "dungeon-render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    /**
+     * Stops the render thread and waits for it to finish its current frame.
+     */
+    public void stop() {
+        running = false;
+        if (renderThread != null) {
+            try {
+                renderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            renderThread = null;
+        }
+    }
+
+    /**
+     * Returns the number of frames drawn since the render thread was started
+     * @return the number of frames shown
+     */
+    public long getFramesDrawn() {
+        return frames;
+    }
+
+    /**
+     * The body of the render thread. Each frame is drawn and shown, then the
+     * thread sleeps until the next frame is due. If drawing falls behind, the
+     * schedule is reset rather than drawing several frames back to back.
+     */
+    private void renderLoop() {
+        BufferStrategy strategy = surface.getBufferStrategy();
+        long nextFrame = System.nanoTime();
+        while (running) {
+            do {
+                do {
+                    Graphics2D g2 = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        render(g2);
+                    } finally {
+                        g2.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+            frames++;
+            nextFrame += frameNanos;
+            long wait = nextFrame - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            else
+                nextFrame = System.nanoTime();
+        }
+    }
+
+    /**
+     * Draws one complete frame from the newest scene published by the game thread
+     * @param g2 The graphics object of the back buffer
+     */
+    private void render(Graphics2D g2) {
+        g2.setColor(scene.getBackground());
+        g2.fillRect(0, 0, surface.getWidth(), surface.getHeight());
+        TurnMetrics m = metrics;
+        long start = m != null ? m.start() : 0;
+        scene.takeScene();
+        BufferedImage layer = scene.getTileLayer();
+        if (layer != null) {
+            g2.drawImage(validateTileVolatile(layer), 0, 0, null);
+            if (tileVolatile.contentsLost())
+                tileVolatileRenders = -1;     //copy again next frame
+        } else {
+            scene.drawTiles(g2);              //level too large to cache
+        }
+        GameLoop l = loop;
+        scene.setInterpolation(l != null ? l.getAlpha() : 1);
+        scene.drawEntities(g2);
+        if (scene.isOverlayVisible())
+            scene.drawOverlay(g2);
+        if (m != null)
+            m.stop(TurnMetrics.Phase.PAINT, start);
+    }
+
+    /**
+     * Makes sure the VolatileImage copy of the tile layer exists, is compatible
+     * with the screen and holds the latest tile layer, recreating or refilling
+     * it as needed.
+     * @param layer The scene's current tile layer
+     * @return the VolatileImage to draw
+     */
+    private VolatileImage validateTileVolatile(BufferedImage layer) {
+        GraphicsConfiguration gc = surface.getGraphicsConfiguration();
+        if (tileVolatile == null || tileVolatile.getWidth() != layer.getWidth()
+                || tileVolatile.getHeight() != layer.getHeight()
+                || tileVolatile.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (tileVolatile != null)
+                tileVolatile.flush();
+            tileVolatile = gc.createCompatibleVolatileImage(layer.getWidth(), layer.getHeight(),
+                    Transparency.TRANSLUCENT);
+            tileVolatileRenders = -1;
+        }
+        if (tileVolatile.validate(gc) == VolatileImage.IMAGE_RESTORED
+                || tileVolatileRenders != scene.getTileLayerRenders()) {
+            Graphics2D vg = tileVolatile.createGraphics();
+            vg.setComposite(AlphaComposite.Src);
+            vg.drawImage(layer, 0, 0, null);
+            vg.dispose();
+            tileVolatileRenders = scene.getTileLayerRenders();
+        }
+        return tileVolatile;
+    }
+}
@@ -0,0 +1,83 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Random;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The BspGenerator class makes levels of rectangular rooms joined by corridors
+ * using binary space partitioning. The level is split in two, across its longer
+ * side, and each half is split again until the parts are too small to split.
+ * A room of random size is carved inside each part, and then, working back up
+ * the splits, the two halves of every split are joined by an L-shaped corridor
+ * between a room in each, so every room can be reached from every other.
+ * @author prtrundl
+ */
+public class BspGenerator implements LevelGenerator {
+
+    /**
+     * The smallest width or height of a part of the level. Parts smaller than
+     * twice this are not split any further.
+     */
+    public static final int MIN_PART_SIZE = 6;
+
+    @Override
+    public TileGrid generate(int width, int height, Random r) {
+        TileGrid grid = new TileGrid(width, height);
+        split(grid, r, 0, 0, width, height);
+        return grid;
+    }
+
+    /**
+     * Splits a part of the level in two and joins the halves, or carves a room
+     * in it if it is too small to split
+     * @param grid The level being generated
+     * @param r The random number generator
+     * @param x The X co-ordinate of the left of the part
+     * @param y The Y co-ordinate of the top of the part
+     * @param w The width of the part
+     * @param h The height of the part
+     * @return the index of a floor tile in a room inside the part, which
+     * corridors to this part are joined to
+     */
+    private static int split(TileGrid grid, Random r, int x, int y, int w, int h) {
+        boolean canSplitX = w >= 2 * MIN_PART_SIZE, canSplitY = h >= 2 * MIN_PART_SIZE;
+        if (!canSplitX && !canSplitY)
+            return carveRoom(grid, r, x, y, w, h);
+        boolean acrossX = canSplitX && (!canSplitY || w > h || (w == h && r.nextBoolean()));
+        int a, b;
+        if (acrossX) {
+            int cut = MIN_PART_SIZE + r.nextInt(w - 2 * MIN_PART_SIZE + 1);
+            a = split(grid, r, x, y, cut, h);
+            b = split(grid, r, x + cut, y, w - cut, h);
+        } else {
+            int cut = MIN_PART_SIZE + r.nextInt(h - 2 * MIN_PART_SIZE + 1);
+            a = split(grid, r, x, y, w, cut);
+            b = split(grid, r, x, y + cut, w, h - cut);
+        }
+        Connectivity.carveCorridor(grid, a, b, r.nextBoolean());
+        return r.nextBoolean() ? a : b;
+    }
+
+    /**
+     * Carves a room of random size inside a part, leaving at least one wall
+     * between the room and the edge of the part
+     * @param grid The level being generated
+     * @param r The random number generator
+     * @param x The X co-ordinate of the left of the part
+     * @param y The Y co-ordinate of the top of the part
+     * @param w The width of the part
+     * @param h The height of the part
+     * @return the index of the tile in the middle of the room
+     */
+    private static int carveRoom(TileGrid grid, Random r, int x, int y, int w, int h) {
+        int rw = Math.max(1, w - 2), rh = Math.max(1, h - 2);
+        rw -= r.nextInt(rw / 2 + 1);
+        rh -= r.nextInt(rh / 2 + 1);
+        int rx = x + Math.min(1, w - 1) + r.nextInt(Math.max(1, w - 1 - rw));
+        int ry = y + Math.min(1, h - 1) + r.nextInt(Math.max(1, h - 1 - rh));
+        for (int j = ry; j < ry + rh; j++)
+            for (int i = rx; i < rx + rw; i++)
+                grid.set(i, j, TileType.FLOOR);
+        return grid.index(rx + rw / 2, ry + rh / 2);
+    }
+}
@@ -0,0 +1,745 @@
+package uk.ac.bradford.dungeongame;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.JPanel;
+
+/**
+ * Internal class used to draw elements within a JPanel. The Canvas class draws
+ * the images of the default Tileset, which every Canvas shares. Tiles only change
+ * when a level is generated, so they are drawn once into a cached image and
+ * only the tiles around entities that moved are repainted after each turn.
+ * Levels larger than the visible area (DUNGEON_WIDTH by DUNGEON_HEIGHT tiles)
+ * are not cached; instead only the visible tiles around the player are drawn,
+ * so drawing costs the same however large the level is. Tiles the player has
+ * not seen yet are left blank, and monsters are only drawn while the player
+ * can see them.
+ * <p>
+ * The game thread never shares its objects with the thread that draws. It
+ * publishes a copy of the tiles, field of view and entities after each turn,
+ * and the drawing thread takes the latest copy before it draws. For a Canvas
+ * in a window the drawing thread is the Swing event dispatch thread, so the
+ * camera, the tile layer and repaint requests are only touched there.
+ * @author prtrundl
+ */
+class Canvas extends JPanel {
+
+    private BufferedImage floor;
+    private BufferedImage wall;
+    private BufferedImage player;
+    private BufferedImage monster;
+    private BufferedImage stairs;
+    
+    /**
+     * The tileset the images come from, and whether they have been taken from
+     * it yet; they are taken when first needed so they can load in the background
+     */
+    private final Tileset tileset;
+    private boolean imagesLoaded;
+    
+    /**
+     * The scene being drawn, only used by the drawing thread, and the newest
+     * scene published by the game thread, which is swapped in when it is fresh
+     */
+    private Scene front = new Scene();
+    private Scene ready = new Scene();
+    private boolean fresh;
+    
+    /**
+     * Guards ready and fresh, and the fields the game thread uses to publish
+     */
+    private final Object sceneLock = new Object();
+    
+    /**
+     * The grid and version last published, and a number that changes when
+     * either does, so the tiles are only copied again when they have changed
+     */
+    private TileGrid publishedGrid;
+    private int publishedVersion;
+    private int tilesEpoch;
+    
+    /**
+     * Takes the newest scene on the event dispatch thread, and whether it has
+     * been posted there and not run yet, so a burst of turns only posts it once
+     */
+    private final Runnable takeTask = this::takePosted;
+    private final AtomicBoolean takePending = new AtomicBoolean();
+    
+    private BufferedImage tileLayer;    //pre-rendered image of the scene's tiles
+    private Graphics2D tileLayerGraphics;   //kept to draw into tileLayer again
+    private int tileLayerEpoch;         //the tiles epoch of the scene when drawn
+    private int tileLayerRenders;       //how many times tileLayer has been drawn
+    private int tileLayerSeen;          //the seen version of the view when drawn
+    
+    /**
+     * The graphics configuration images are made compatible with, or null if
+     * images have not been converted yet
+     */
+    private GraphicsConfiguration imageConfig;
+    
+    /**
+     * The X, Y and health of each entity as last drawn, three values per entity
+     * with the player first, used to find which tiles need repainting. The
+     * array only grows, so monsters dying does not replace it; drawnSlots is
+     * the number of values in use.
+     */
+    private int[] drawnEntities = new int[0];
+    private int drawnSlots;
+    
+    /**
+     * The number of tiles visible across and down the panel
+     */
+    static final int VIEW_WIDTH = GameEngine.DUNGEON_WIDTH;
+    static final int VIEW_HEIGHT = GameEngine.DUNGEON_HEIGHT;
+    
+    /**
+     * The tile shown in the top left corner of the panel. This is always 0, 0
+     * unless the level is larger than the visible area.
+     */
+    private int camX;
+    private int camY;
+
+    /**
+     * How far between their previous and current tiles entities are drawn,
+     * set by the active renderer while a GameLoop is running
+     */
+    private volatile float alpha = 1;
+
+    /**
+     * The metrics that painting is timed into and that the overlay shows, or null
+     */
+    private volatile TurnMetrics metrics;
+
+    /**
+     * Whether the timing overlay is drawn over the game
+     */
+    private volatile boolean overlayVisible;
+
+    /**
+     * The size of the timing overlay in pixels
+     */
+    private static final int OVERLAY_WIDTH = 330;
+    private static final int OVERLAY_LINE_HEIGHT = 14;
+    private static final int OVERLAY_HEIGHT = (TurnMetrics.PHASES.length + 1) * OVERLAY_LINE_HEIGHT + 8;
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 170);
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    /**
+     * The widths in characters of the phase name and each time in the overlay,
+     * and its heading, which never changes
+     */
+    private static final int OVERLAY_LABEL_WIDTH = 10;
+    private static final int OVERLAY_COLUMN_WIDTH = 9;
+    private static final String OVERLAY_HEADING = String.format("%-10s %8s %8s %8s", "us", "p50", "p99", "max");
+
+    /**
+     * The overlay row being built and the characters it is drawn from, reused
+     * for every row so drawing the overlay does not allocate
+     */
+    private final StringBuilder overlayRow = new StringBuilder(64);
+    private final char[] overlayChars = new char[64];
+
+    /**
+     * The translucent background of the overlay, drawn once and then copied,
+     * because filling with a translucent colour allocates on every fill in
+     * some drawing pipelines
+     */
+    private BufferedImage overlayBackground;
+    
+    /**
+     * Constructor that starts loading the tile images if they are not loaded
+     * already, without waiting for them
+     */
+    public Canvas() {
+        tileset = Tileset.getDefault();
+    }
+    
+    /**
+     * Converts the tile images to the format of the screen once this panel is
+     * added to a window, so drawing them does not need a slow format conversion.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        useCompatibleImages(getGraphicsConfiguration());
+    }
+    
+    /**
+     * Converts the tile images, and the cached tile layer, to images compatible
+     * with a graphics configuration so that they can be drawn with a fast (and
+     * usually hardware accelerated) copy.
+     * @param gc The graphics configuration that images will be drawn to, nothing
+     * is converted if this is null
+     */
+    void useCompatibleImages(GraphicsConfiguration gc) {
+        if (gc == null || gc == imageConfig)
+            return;
+        imageConfig = gc;
+        useImages(tileset.getImages(gc));
+        setTileLayer(null);
+        renderTileLayer();
+    }
+    
+    /**
+     * Takes the decoded tile images from the tileset, waiting for any still
+     * loading, unless compatible images have been taken already
+     */
+    private void loadTileImages() {
+        if (!imagesLoaded)
+            useImages(tileset.getImages());
+    }
+    
+    /**
+     * Sets the images used to draw the tiles and entities
+     * @param images The sprites of the tileset by name
+     */
+    private void useImages(Map<String, BufferedImage> images) {
+        floor = images.get("floor");
+        wall = images.get("wall");
+        player = images.get("player");
+        monster = images.get("monster");
+        stairs = images.get("stairs");
+        imagesLoaded = true;
+    }
+    
+    /**
+     * Updates the current graphics on the screen to display the tiles, player
+     * and monsters. They are copied on the calling thread, and the copy is
+     * taken and repainted later on the event dispatch thread.
+     * @param t The TileGrid representing the current level of the dungeon
+     * @param fov The player's field of view, or null to draw every tile and monster
+     * @param player The current player object, used to draw the player and its health
+     * @param mon The store of monsters to display them and their health
+     */
+    public void update(TileGrid t, FieldOfView fov, Entity player, MonsterStore mon) {
+        publish(t, fov, player, mon);
+        if (takePending.compareAndSet(false, true))
+            EventQueue.invokeLater(takeTask);
+    }
+    
+    /**
+     * Run on the event dispatch thread after update posts it. The pending flag
+     * is cleared first so a scene published while this runs posts again.
+     */
+    private void takePosted() {
+        takePending.set(false);
+        takeScene();
+    }
+    
+    /**
+     * Copies the game state into the scene waiting to be drawn, replacing any
+     * scene that has not been taken yet. This is called by the game thread,
+     * which can change its objects again as soon as this returns.
+     * @param t The TileGrid representing the current level of the dungeon
+     * @param fov The player's field of view, or null to draw every tile and monster
+     * @param player The current player object, or null
+     * @param mon The store of monsters, or null
+     */
+    void publish(TileGrid t, FieldOfView fov, Entity player, MonsterStore mon) {
+        synchronized (sceneLock) {
+            if (t != publishedGrid || (t != null && t.getVersion() != publishedVersion)) {
+                publishedGrid = t;
+                publishedVersion = t == null ? 0 : t.getVersion();
+                tilesEpoch++;
+            }
+            ready.capture(t, tilesEpoch, fov, player, mon);
+            fresh = true;
+        }
+    }
+    
+    /**
+     * Makes the newest published scene the one drawn, if one was published
+     * since the last call, and works out which parts of the panel need
+     * repainting. This is called by the thread that draws.
+     * @return true if a new scene was taken
+     */
+    boolean takeScene() {
+        synchronized (sceneLock) {
+            if (!fresh)
+                return false;
+            Scene s = front;
+            front = ready;
+            ready = s;
+            fresh = false;
+        }
+        int oldCamX = camX, oldCamY = camY;
+        updateCamera();
+        Scene s = front;
+        int slots = 3 * (1 + s.monsterCount);
+        if (s.tilesEpoch != tileLayerEpoch || seenVersion() != tileLayerSeen
+                || drawnSlots != slots || camX != oldCamX || camY != oldCamY) {
+            renderTileLayer();
+            if (drawnEntities.length < slots)
+                drawnEntities = new int[slots];
+            drawnSlots = slots;
+            if (!s.hasPlayer)
+                recordEntity(0, -1, -1, 0);
+            else
+                recordEntity(0, s.playerX, s.playerY, s.playerHealth);
+            for (int i = 1; i * 3 < slots; i++) {
+                int m = (i - 1) * Scene.MONSTER_FIELDS;
+                recordEntity(i, visibleX(s.monsters[m], s.monsters[m + 1]), s.monsters[m + 1], s.monsters[m + 4]);
+            }
+            repaint();
+        } else {
+            if (!s.hasPlayer)
+                repaintIfMoved(0, -1, -1, 0);
+            else
+                repaintIfMoved(0, s.playerX, s.playerY, s.playerHealth);
+            for (int i = 1; i * 3 < slots; i++) {
+                int m = (i - 1) * Scene.MONSTER_FIELDS;
+                repaintIfMoved(i, visibleX(s.monsters[m], s.monsters[m + 1]), s.monsters[m + 1], s.monsters[m + 4]);
+            }
+            if (overlayVisible)
+                repaint(0, 0, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the version of the seen tiles, so the tile layer can tell when
+     * newly seen tiles need drawing
+     * @return the seen version of view, or -1 if everything is drawn
+     */
+    private int seenVersion() {
+        FieldOfView view = front.view;
+        return view == null ? -1 : view.getSeenVersion();
+    }
+    
+    /**
+     * Checks whether the player can see a tile, so a monster in it is drawn
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is visible or there is no field of view
+     */
+    private boolean canSee(int x, int y) {
+        FieldOfView view = front.view;
+        return view == null || view.isVisible(x, y);
+    }
+    
+    /**
+     * Returns the X position an entity is recorded at in drawnEntities: its
+     * real position if it can be seen, otherwise -1 as if there were no entity
+     * @param x The X co-ordinate of the entity
+     * @param y The Y co-ordinate of the entity
+     * @return x, or -1 if the tile cannot be seen
+     */
+    private int visibleX(int x, int y) {
+        return canSee(x, y) ? x : -1;
+    }
+    
+    /**
+     * Moves the camera so that the player is in the middle of the panel, without
+     * showing anything beyond the edges of the level.
+     */
+    private void updateCamera() {
+        Scene s = front;
+        if (s.tiles == null || !s.hasPlayer) {
+            camX = camY = 0;
+            return;
+        }
+        camX = Math.max(0, Math.min(s.playerX - VIEW_WIDTH / 2, s.tiles.getWidth() - VIEW_WIDTH));
+        camY = Math.max(0, Math.min(s.playerY - VIEW_HEIGHT / 2, s.tiles.getHeight() - VIEW_HEIGHT));
+    }
+    
+    /**
+     * Draws every seen tile of the scene into the cached tile layer
+     * image. Called only when the level or one of its tiles has changed, or the
+     * player has seen new tiles. No image is
+     * kept for levels larger than the visible area.
+     */
+    void renderTileLayer() {
+        TileGrid tiles = front.tiles;
+        tileLayerEpoch = front.tilesEpoch;
+        tileLayerSeen = seenVersion();
+        if (tiles == null || tiles.getWidth() > VIEW_WIDTH || tiles.getHeight() > VIEW_HEIGHT) {
+            setTileLayer(null);
+            return;
+        }
+        int w = tiles.getWidth() * GameGUI.TILE_WIDTH;
+        int h = tiles.getHeight() * GameGUI.TILE_HEIGHT;
+        if (tileLayer == null || tileLayer.getWidth() != w || tileLayer.getHeight() != h)
+            setTileLayer(imageConfig != null
+                    ? imageConfig.createCompatibleImage(w, h, Transparency.TRANSLUCENT)
+                    : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB));
+        Graphics2D g2 = tileLayerGraphics;
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, w, h);
+        g2.setComposite(AlphaComposite.SrcOver);
+        drawTiles(g2);
+        tileLayerRenders++;
+    }
+    
+    /**
+     * Replaces the tile layer image. A graphics object for the image is kept
+     * while it is used, so redrawing the layer when the player sees new tiles
+     * does not create one every turn.
+     * @param layer The new tile layer, or null for none
+     */
+    private void setTileLayer(BufferedImage layer) {
+        if (tileLayerGraphics != null)
+            tileLayerGraphics.dispose();
+        tileLayer = layer;
+        tileLayerGraphics = layer == null ? null : layer.createGraphics();
+    }
+    
+    /**
+     * Returns the cached image of the current level's tiles
+     * @return the tile layer, or null if there is no level to draw or the level
+     * is too large to cache
+     */
+    BufferedImage getTileLayer() {
+        return tileLayer;
+    }
+    
+    /**
+     * Returns a number that changes every time the tile layer is redrawn, so
+     * that copies of it (such as a VolatileImage) can tell when to refresh
+     * @return the number of times the tile layer has been drawn
+     */
+    int getTileLayerRenders() {
+        return tileLayerRenders;
+    }
+    
+    /**
+     * Repaints the old and new tile of one entity if its position or health
+     * has changed since it was last drawn, and records its new state.
+     * @param slot The position of the entity in drawnEntities
+     * @param x The X position of the entity, or -1 if there is no entity
+     * @param y The Y position of the entity
+     * @param health The health of the entity
+     */
+    private void repaintIfMoved(int slot, int x, int y, int health) {
+        int i = slot * 3;
+        if (drawnEntities[i] != x || drawnEntities[i + 1] != y || drawnEntities[i + 2] != health) {
+            repaintTile(drawnEntities[i], drawnEntities[i + 1]);
+            repaintTile(x, y);
+            recordEntity(slot, x, y, health);
+        }
+    }
+    
+    /**
+     * Stores the position and health of one entity in drawnEntities
+     * @param slot The position of the entity in drawnEntities
+     * @param x The X position of the entity, or -1 if there is no entity
+     * @param y The Y position of the entity
+     * @param health The health of the entity
+     */
+    private void recordEntity(int slot, int x, int y, int health) {
+        int i = slot * 3;
+        drawnEntities[i] = x;
+        drawnEntities[i + 1] = y;
+        drawnEntities[i + 2] = health;
+    }
+    
+    /**
+     * Requests a repaint of the screen area covered by one tile
+     * @param x The X co-ordinate of the tile, nothing is repainted if negative
+     * @param y The Y co-ordinate of the tile
+     */
+    private void repaintTile(int x, int y) {
+        if (x >= 0)
+            repaint((x - camX) * GameGUI.TILE_WIDTH, (y - camY) * GameGUI.TILE_HEIGHT,
+                    GameGUI.TILE_WIDTH, GameGUI.TILE_HEIGHT);
+    }
+    
+    /**
+     * Override of method in super class, it draws the custom elements for this
+     * game such as the tiles, player and monsters. The background is filled
+     * here rather than by the super class, which would copy g to do it.
+     * @param g 
+     */
+    @Override
+    public void paintComponent(Graphics g) {
+        TurnMetrics m = metrics;
+        long start = m != null ? m.start() : 0;
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(0, 0, getWidth(), getHeight());
+        }
+        drawDungeon(g);
+        if (overlayVisible)
+            drawOverlay((Graphics2D) g);
+        if (m != null)
+            m.stop(TurnMetrics.Phase.PAINT, start);
+    }
+
+    /**
+     * Sets the metrics that painting is timed into and that the overlay shows
+     * @param metrics The metrics, or null to stop timing painting
+     */
+    void setMetrics(TurnMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Shows the timing overlay if it is hidden, or hides it if it is shown
+     */
+    void toggleOverlay() {
+        overlayVisible = !overlayVisible;
+        repaint(0, 0, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+    }
+
+    /**
+     * Checks whether the timing overlay is shown
+     * @return true if the overlay is drawn over the game
+     */
+    boolean isOverlayVisible() {
+        return overlayVisible;
+    }
+
+    /**
+     * Draws the timing overlay in the top left corner: the p50, p99 and maximum
+     * time of each phase in microseconds, over a translucent background
+     * @param g2 The graphics object to use for drawing
+     */
+    void drawOverlay(Graphics2D g2) {
+        TurnMetrics m = metrics;
+        if (m == null)
+            return;
+        if (overlayBackground == null) {
+            overlayBackground = new BufferedImage(OVERLAY_WIDTH, OVERLAY_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D bg = overlayBackground.createGraphics();
+            bg.setComposite(AlphaComposite.Src);
+            bg.setColor(OVERLAY_BACKGROUND);
+            bg.fillRect(0, 0, OVERLAY_WIDTH, OVERLAY_HEIGHT);
+            bg.dispose();
+        }
+        g2.drawImage(overlayBackground, 0, 0, null);
+        g2.setColor(Color.WHITE);
+        g2.setFont(OVERLAY_FONT);
+        int y = OVERLAY_LINE_HEIGHT;
+        g2.drawString(OVERLAY_HEADING, 4, y);
+        for (TurnMetrics.Phase p : TurnMetrics.PHASES) {
+            LatencyHistogram h = m.get(p);
+            y += OVERLAY_LINE_HEIGHT;
+            StringBuilder row = overlayRow;
+            row.setLength(0);
+            row.append(p.label);
+            while (row.length() < OVERLAY_LABEL_WIDTH)
+                row.append(' ');
+            appendMicros(row, h.getPercentile(50));
+            appendMicros(row, h.getPercentile(99));
+            appendMicros(row, h.getMax());
+            int length = Math.min(row.length(), overlayChars.length);
+            row.getChars(0, length, overlayChars, 0);
+            g2.drawChars(overlayChars, 0, length, 4, y);
+        }
+    }
+
+    /**
+     * Appends a time to an overlay row in microseconds with one decimal place,
+     * right aligned in a column, without formatting a floating point number
+     * @param row The row to append to
+     * @param nanos The time in nanoseconds
+     */
+    private static void appendMicros(StringBuilder row, long nanos) {
+        long tenths = (nanos + 50) / 100;
+        int end = row.length() + OVERLAY_COLUMN_WIDTH;
+        row.append(tenths / 10).append('.').append(tenths % 10);
+        while (row.length() < end)
+            row.insert(end - OVERLAY_COLUMN_WIDTH, ' ');
+    }
+
+    /**
+     * Draws graphical elements to the screen to display the current dungeon level
+     * tiles, the player and the monsters. The tiles are copied from the cached
+     * tile layer, so only the area inside the clip of g is actually redrawn. If
+     * the tiles, player or monster objects are null they will not be drawn.
+     * @param g 
+     */
+    void drawDungeon(Graphics g) {
+        Graphics2D g2 = (Graphics2D) g;
+        if (tileLayer != null)
+            g2.drawImage(tileLayer, 0, 0, null);
+        else
+            drawTiles(g2);
+        drawEntities(g2);
+    }
+    
+    /**
+     * Draws the monsters and the player with their health bars, but not the tiles.
+     * Monsters outside the visible area or out of the player's sight are skipped.
+     * @param g2 The graphics object to use for drawing
+     */
+    void drawEntities(Graphics2D g2) {
+        loadTileImages();
+        float a = alpha;
+        Scene s = front;
+        int[] mon = s.monsters;
+        for (int m = 0; m < s.monsterCount * Scene.MONSTER_FIELDS; m += Scene.MONSTER_FIELDS) {
+            int x = mon[m] - camX;
+            int y = mon[m + 1] - camY;
+            if (x < 0 || y < 0 || x >= VIEW_WIDTH || y >= VIEW_HEIGHT || !canSee(mon[m], mon[m + 1]))
+                continue;
+            int px = lerp(mon[m + 2] - camX, x, a, GameGUI.TILE_WIDTH);
+            int py = lerp(mon[m + 3] - camY, y, a, GameGUI.TILE_HEIGHT);
+            g2.drawImage(monster, px, py, null);
+            drawHealthBar(g2, px, py, mon[m + 4], mon[m + 5]);
+        }
+        if (s.hasPlayer) {
+            int px = lerp(s.playerPrevX - camX, s.playerX - camX, a, GameGUI.TILE_WIDTH);
+            int py = lerp(s.playerPrevY - camY, s.playerY - camY, a, GameGUI.TILE_HEIGHT);
+            g2.drawImage(player, px, py, null);
+            drawHealthBar(g2, px, py, s.playerHealth, s.playerMaxHealth);
+        }
+    }
+
+    /**
+     * Works out the pixel position of an entity part way between two tiles
+     * @param from The tile the entity was in at the start of the tick
+     * @param to The tile the entity is in now
+     * @param a How far through the move the entity is, from 0 to 1
+     * @param tileSize The size of a tile in pixels
+     * @return the pixel position to draw the entity at
+     */
+    private static int lerp(int from, int to, float a, int tileSize) {
+        if (a >= 1 || from == to)
+            return to * tileSize;
+        return Math.round((from + (to - from) * a) * tileSize);
+    }
+
+    /**
+     * Sets how far between their previous and current tiles entities are drawn.
+     * This is 1 (drawn in their current tiles) unless a GameLoop is running.
+     * @param alpha How far through the current tick the game is, from 0 to 1
+     */
+    void setInterpolation(float alpha) {
+        this.alpha = alpha;
+    }
+    
+    /**
+     * Draws the visible tiles of the current level, skipping tiles the player
+     * has not seen. This is used to build the cached tile layer, and directly on
+     * every paint for levels too large to cache.
+     * @param g2 The graphics object to use for drawing
+     */
+    void drawTiles(Graphics2D g2) {
+        TileGrid tiles = front.tiles;
+        FieldOfView view = front.view;
+        if (tiles == null)
+            return;
+        loadTileImages();
+        int maxX = Math.min(tiles.getWidth(), camX + VIEW_WIDTH);
+        int maxY = Math.min(tiles.getHeight(), camY + VIEW_HEIGHT);
+        for (int j = camY; j < maxY; j++) {
+            int y = (j - camY) * GameGUI.TILE_HEIGHT;
+            for (int i = camX; i < maxX; i++) {
+                if (view != null && !view.isSeen(i, j))
+                    continue;
+                int x = (i - camX) * GameGUI.TILE_WIDTH;
+                switch (tiles.get(i, j)) {
+                    case FLOOR:
+                        g2.drawImage(floor, x, y, null);
+                        break;
+                    case WALL:
+                        g2.drawImage(wall, x, y, null);
+                        break;
+                    case STAIRS:
+                        g2.drawImage(stairs, x, y, null);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Draws a health bar for an entity at the bottom of the tile that the
+     * entity is located in.
+     * @param g2 The graphics object to use for drawing
+     * @param x The X position of the entity in pixels
+     * @param y The Y position of the entity in pixels
+     * @param health The current health of the entity
+     * @param maxHealth The maximum health of the entity
+     */
+    private void drawHealthBar(Graphics2D g2, int x, int y, int health, int maxHealth) {
+        double remainingHealth = (double)health / (double)maxHealth;
+        g2.setColor(Color.RED);
+        g2.fillRect(x, y + 29, GameGUI.TILE_WIDTH, GameGUI.HEALTH_BAR_HEIGHT);
+        g2.setColor(Color.GREEN);
+        g2.fillRect(x, y + 29, (int) Math.round(GameGUI.TILE_WIDTH * remainingHealth), GameGUI.HEALTH_BAR_HEIGHT);
+    }
+
+    /**
+     * A copy of the game state that frames are drawn from. The tiles are only
+     * copied when they have changed, and every array is reused, so publishing
+     * a scene does not allocate once the game is running.
+     */
+    private static class Scene {
+
+        /**
+         * The number of values stored for each monster: X, Y, previous X,
+         * previous Y, health and maximum health
+         */
+        static final int MONSTER_FIELDS = 6;
+
+        TileGrid tiles;         //copy of the level's tiles, or null for none
+        int tilesEpoch;         //the tiles epoch the copy was published at
+        FieldOfView view;       //copy of the field of view, or null to draw everything
+
+        boolean hasPlayer;
+        int playerX;
+        int playerY;
+        int playerPrevX;
+        int playerPrevY;
+        int playerHealth;
+        int playerMaxHealth;
+
+        int monsterCount;
+        int[] monsters = new int[0];    //MONSTER_FIELDS values per monster
+
+        /**
+         * Copies the game state into this scene
+         * @param t The tiles of the current level, or null
+         * @param epoch The tiles epoch of t, which differs from this scene's if
+         * the tiles must be copied again
+         * @param fov The player's field of view, or null
+         * @param player The current player, or null
+         * @param mon The store of monsters, or null
+         */
+        void capture(TileGrid t, int epoch, FieldOfView fov, Entity player, MonsterStore mon) {
+            if (t == null)
+                tiles = null;
+            else if (tiles == null || tiles.getWidth() != t.getWidth() || tiles.getHeight() != t.getHeight())
+                tiles = new TileGrid(t);
+            else if (epoch != tilesEpoch)
+                tiles.copyFrom(t);
+            tilesEpoch = epoch;
+            if (fov == null) {
+                view = null;
+            } else {
+                if (view == null || view.getWidth() != fov.getWidth() || view.getHeight() != fov.getHeight())
+                    view = new FieldOfView(fov.getWidth(), fov.getHeight(), 0);
+                view.copyFrom(fov);
+            }
+            hasPlayer = player != null;
+            if (hasPlayer) {
+                playerX = player.getX();
+                playerY = player.getY();
+                playerPrevX = player.getPrevX();
+                playerPrevY = player.getPrevY();
+                playerHealth = player.getHealth();
+                playerMaxHealth = player.getMaxHealth();
+            }
+            monsterCount = mon == null ? 0 : mon.size();
+            if (monsters.length < monsterCount * MONSTER_FIELDS)
+                monsters = new int[monsterCount * MONSTER_FIELDS];
+            for (int i = 0, m = 0; i < monsterCount; i++, m += MONSTER_FIELDS) {
+                monsters[m] = mon.getX(i);
+                monsters[m + 1] = mon.getY(i);
+                monsters[m + 2] = mon.getPrevX(i);
+                monsters[m + 3] = mon.getPrevY(i);
+                monsters[m + 4] = mon.getHealth(i);
+                monsters[m + 5] = mon.getMaxHealth(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+import java.util.Random;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The CaveGenerator class makes natural looking caves with a cellular
+ * automaton. The level starts as random noise (a little under half walls) and
+ * is then smoothed a few times: a tile becomes a wall if at least five of its
+ * eight neighbours are walls, or if it is already a wall and at least four
+ * are, and becomes a floor otherwise. Tiles outside the level count as walls,
+ * so caves are closed off at the edges.
+ * <p>
+ * The cells are packed 64 to a long, one bit per tile with 1 for a wall. The
+ * eight neighbours of every tile in a long are found by shifting the long and
+ * the longs above and below it, and the neighbours are counted with bitwise
+ * adders, so each smoothing step does 64 tiles at a time.
+ * @author prtrundl
+ */
+public class CaveGenerator implements LevelGenerator {
+
+    /**
+     * The number of smoothing steps
+     */
+    public static final int STEPS = 5;
+
+    @Override
+    public TileGrid generate(int width, int height, Random r) {
+        int rowWords = (width + 63) >>> 6;
+        long[] cells = new long[rowWords * height];
+        long[] next = new long[rowWords * height];
+        long[] walls = new long[rowWords];           //the row beyond each edge
+        Arrays.fill(walls, -1L);
+        long edge = width % 64 == 0 ? 0 : -1L << (width % 64);   //bits past the last column
+        for (int y = 0; y < height; y++) {
+            for (int i = 0; i < rowWords; i++) {
+                //a wall if the first bit is 0 and any of the next three is 1: 7/16, close to 45%
+                cells[y * rowWords + i] = ~r.nextLong() & (r.nextLong() | r.nextLong() | r.nextLong());
+            }
+            cells[y * rowWords + rowWords - 1] |= edge;
+        }
+        for (int step = 0; step < STEPS; step++) {
+            for (int y = 0; y < height; y++)
+                smoothRow(cells, next, walls, y, height, rowWords, edge);
+            long[] t = cells;
+            cells = next;
+            next = t;
+        }
+        TileGrid grid = new TileGrid(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((cells[y * rowWords + (x >>> 6)] & (1L << x)) == 0)
+                    grid.set(x, y, TileType.FLOOR);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Applies one smoothing step to a row of tiles
+     * @param cells The current cells
+     * @param next The cells after the step, where the row is written
+     * @param walls A row of all walls, used for the rows beyond the edges
+     * @param y The row to smooth
+     * @param height The height of the level in tiles
+     * @param rowWords The number of longs in each row
+     * @param edge Mask of the bits past the last column, which stay walls
+     */
+    private static void smoothRow(long[] cells, long[] next, long[] walls, int y, int height,
+            int rowWords, long edge) {
+        long[] up = y > 0 ? cells : walls;
+        long[] down = y < height - 1 ? cells : walls;
+        int upBase = y > 0 ? (y - 1) * rowWords : 0;
+        int downBase = y < height - 1 ? (y + 1) * rowWords : 0;
+        int base = y * rowWords;
+        for (int i = 0; i < rowWords; i++) {
+            long self = cells[base + i];
+            long n = up[upBase + i], s = down[downBase + i];
+            //the longs either side are needed for the bits shifted in at each end
+            long nw = i > 0 ? up[upBase + i - 1] : -1L, ne = i < rowWords - 1 ? up[upBase + i + 1] : -1L;
+            long w = i > 0 ? cells[base + i - 1] : -1L, e = i < rowWords - 1 ? cells[base + i + 1] : -1L;
+            long sw = i > 0 ? down[downBase + i - 1] : -1L, se = i < rowWords - 1 ? down[downBase + i + 1] : -1L;
+            long a = west(n, nw), b = east(n, ne);
+            long c = west(self, w), d = east(self, e);
+            long f = west(s, sw), g = east(s, se);
+            //count the eight neighbours of each bit into c3 c2 c1 c0 with a tree
+            //of adders: first add up the ones, then the carries (twos), then theirs
+            long s1 = a ^ n ^ b, k1 = (a & n) | (b & (a ^ n));
+            long s2 = c ^ d ^ f, k2 = (c & d) | (f & (c ^ d));
+            long s3 = s ^ g, k3 = s & g;
+            long c0 = s1 ^ s2 ^ s3, k4 = (s1 & s2) | (s3 & (s1 ^ s2));
+            long t = k1 ^ k2 ^ k3, m1 = (k1 & k2) | (k3 & (k1 ^ k2));
+            long c1 = t ^ k4, m2 = t & k4;
+            long c2 = m1 ^ m2, c3 = m1 & m2;
+            long atLeastFive = c3 | (c2 & (c1 | c0));
+            long atLeastFour = c3 | c2;
+            long result = atLeastFive | (self & atLeastFour);
+            if (i == rowWords - 1)
+                result |= edge;
+            next[base + i] = result;
+        }
+    }
+
+    /**
+     * Returns, for each bit of a long, the bit of the tile to its left
+     * @param word The long holding the tiles
+     * @param previous The long holding the 64 tiles before it
+     * @return the neighbouring bits
+     */
+    private static long west(long word, long previous) {
+        return (word << 1) | (previous >>> 63);
+    }
+
+    /**
+     * Returns, for each bit of a long, the bit of the tile to its right
+     * @param word The long holding the tiles
+     * @param following The long holding the 64 tiles after it
+     * @return the neighbouring bits
+     */
+    private static long east(long word, long following) {
+        return (word >>> 1) | (following << 63);
+    }
+}
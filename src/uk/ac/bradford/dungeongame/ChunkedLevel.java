@@ -0,0 +1,394 @@
+package uk.ac.bradford.dungeongame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The ChunkedLevel class represents a very large dungeon level that is split
+ * into square chunks of CHUNK_SIZE by CHUNK_SIZE tiles. Chunks are generated
+ * only when something asks for a tile inside them, and chunks far away from the
+ * player can be evicted again, so memory use depends on how much of the level is
+ * near the player rather than on the size of the level. Each chunk is generated
+ * from the level seed and its own position, so an evicted chunk comes back
+ * exactly the same when it is generated again. Chunks that have had tiles
+ * changed are never evicted, so changes are not lost.
+ * <p>
+ * The loaded chunks are kept in a hash table of parallel arrays keyed by the
+ * chunk position packed into a long, so looking up, adding and evicting chunks
+ * does not box keys or create iterators, and moving around an explored part
+ * of the level allocates nothing.
+ * @author prtrundl
+ */
+public class ChunkedLevel {
+
+    /**
+     * The width and height of a chunk in tiles. This must be a power of two.
+     */
+    public static final int CHUNK_SIZE = 32;
+
+    /**
+     * The number of bits to shift a tile co-ordinate by to get its chunk
+     * co-ordinate, and the mask to get its position inside the chunk
+     */
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * The position along each edge of a chunk of its door, a floor tile that
+     * meets the door of the next chunk. Corridors join the four doors through
+     * the middle of the chunk, so every chunk can be walked to from its
+     * neighbours whatever the random tiles around them are.
+     */
+    private static final int DOOR = CHUNK_SIZE / 2;
+
+    /**
+     * The number of slots the chunk table starts with. This must be a power
+     * of two.
+     */
+    private static final int INITIAL_SLOTS = 64;
+
+    private final int width;
+    private final int height;
+    private final long seed;
+
+    /**
+     * The table of loaded chunks, using open addressing with linear probing.
+     * A slot is empty when its grid is null. Each slot holds the chunk's key
+     * (its X co-ordinate in the high 32 bits and Y in the low 32 bits), its
+     * tiles and the version the tiles had when they were generated, used to
+     * tell whether the chunk has been changed since. Chunks loaded from a
+     * save were not generated and are always treated as changed.
+     */
+    private long[] keys = new long[INITIAL_SLOTS];
+    private TileGrid[] grids = new TileGrid[INITIAL_SLOTS];
+    private int[] generatedVersions = new int[INITIAL_SLOTS];
+    private boolean[] generated = new boolean[INITIAL_SLOTS];
+
+    /**
+     * The number of chunks in the table
+     */
+    private int loaded;
+
+    /**
+     * The number of chunks generated so far, including chunks generated again
+     * after being evicted
+     */
+    private long chunksGenerated;
+
+    /**
+     * Creates a chunked level. No chunks are generated until they are used.
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     * @param seed The seed every chunk is generated from
+     */
+    public ChunkedLevel(int width, int height, long seed) {
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the width of this level
+     * @return the width of the level in tiles
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of this level
+     * @return the height of the level in tiles
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the type of a tile, generating its chunk if needed. Positions
+     * outside the level are walls.
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return the TileType of the tile
+     */
+    public TileType get(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            return TileType.WALL;
+        return chunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT).get(x & CHUNK_MASK, y & CHUNK_MASK);
+    }
+
+    /**
+     * Changes the type of a tile, generating its chunk if needed. The chunk
+     * will not be evicted after this.
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @param type The new TileType for the tile
+     */
+    public void set(int x, int y, TileType type) {
+        chunk(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT).set(x & CHUNK_MASK, y & CHUNK_MASK, type);
+    }
+
+    /**
+     * Copies part of this level into a TileGrid, generating any chunks that
+     * are needed. Parts of the window outside the level are filled with walls.
+     * The window is copied one chunk-sized block at a time, so each chunk is
+     * looked up once rather than once per tile.
+     * @param window The grid to copy tiles into
+     * @param originX The X co-ordinate in this level of the window's left column
+     * @param originY The Y co-ordinate in this level of the window's top row
+     */
+    public void copyWindow(TileGrid window, int originX, int originY) {
+        int w = window.getWidth(), h = window.getHeight();
+        for (int y0 = 0, rows; y0 < h; y0 += rows) {
+            int wy = originY + y0;
+            rows = Math.min(h - y0, CHUNK_SIZE - (wy & CHUNK_MASK));
+            for (int x0 = 0, cols; x0 < w; x0 += cols) {
+                int wx = originX + x0;
+                cols = Math.min(w - x0, CHUNK_SIZE - (wx & CHUNK_MASK));
+                TileGrid chunk = wx < 0 || wy < 0 || wx >= width || wy >= height
+                        ? null : chunk(wx >> CHUNK_SHIFT, wy >> CHUNK_SHIFT);
+                for (int j = 0; j < rows; j++) {
+                    for (int i = 0; i < cols; i++) {
+                        boolean inside = chunk != null && wx + i < width && wy + j < height;
+                        window.set(x0 + i, y0 + j, inside
+                                ? chunk.get((wx + i) & CHUNK_MASK, (wy + j) & CHUNK_MASK) : TileType.WALL);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts every unchanged chunk that is more than radius chunks away (in
+     * either direction) from the chunk containing a tile.
+     * @param x The X co-ordinate of the tile, usually the player's position
+     * @param y The Y co-ordinate of the tile
+     * @param radius The distance in chunks within which chunks are kept
+     * @return the number of chunks evicted
+     */
+    public int evictFarFrom(int x, int y, int radius) {
+        int cx = x >> CHUNK_SHIFT, cy = y >> CHUNK_SHIFT;
+        int evicted = 0;
+        for (int slot = 0; slot < grids.length; ) {
+            long key = keys[slot];
+            int kx = (int) (key >> 32), ky = (int) key;
+            if (grids[slot] != null && (Math.abs(kx - cx) > radius || Math.abs(ky - cy) > radius)
+                    && !isModified(slot)) {
+                remove(slot);       //a later chunk may move into this slot, so look again
+                evicted++;
+            } else {
+                slot++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of chunks currently held in memory
+     * @return the number of loaded chunks
+     */
+    public int getLoadedChunks() {
+        return loaded;
+    }
+
+    /**
+     * Returns the number of chunks generated since this level was created
+     * @return the number of chunk generations
+     */
+    public long getChunksGenerated() {
+        return chunksGenerated;
+    }
+
+    /**
+     * Returns the number of bytes writeTo will write
+     * @return the saved size of the level in bytes
+     */
+    public int savedSize() {
+        return 20 + modifiedChunks() * (8 + CHUNK_SIZE * CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the level to a buffer: its size and seed, then only the chunks
+     * that have been changed since they were generated. Every other chunk can
+     * be generated again from the seed, so a save stays small however much of
+     * the level has been explored.
+     * @param buffer The buffer to write to, which must have savedSize() bytes left
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(width).putInt(height).putLong(seed).putInt(modifiedChunks());
+        for (int slot = 0; slot < grids.length; slot++) {
+            if (grids[slot] != null && isModified(slot)) {
+                buffer.putLong(keys[slot]);
+                grids[slot].writeCells(buffer);
+            }
+        }
+    }
+
+    /**
+     * Creates a level from a buffer written by writeTo. The changed chunks are
+     * loaded and kept, like all changed chunks; the rest are generated when needed.
+     * @param buffer The buffer to read from
+     * @return the level
+     */
+    public static ChunkedLevel readFrom(ByteBuffer buffer) {
+        ChunkedLevel level = new ChunkedLevel(buffer.getInt(), buffer.getInt(), buffer.getLong());
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / (8 + CHUNK_SIZE * CHUNK_SIZE))
+            throw new IllegalArgumentException("bad chunk count " + count);
+        for (int i = 0; i < count; i++) {
+            long key = buffer.getLong();
+            TileGrid chunk = new TileGrid(CHUNK_SIZE, CHUNK_SIZE);
+            chunk.readCells(buffer);
+            level.put(key, chunk, false, 0);    //not generated, so never evicted
+        }
+        return level;
+    }
+
+    /**
+     * Counts the loaded chunks that have been changed since they were generated
+     * @return the number of changed chunks
+     */
+    private int modifiedChunks() {
+        int count = 0;
+        for (int slot = 0; slot < grids.length; slot++)
+            if (grids[slot] != null && isModified(slot))
+                count++;
+        return count;
+    }
+
+    /**
+     * Checks whether the chunk in a slot has been changed since it was generated
+     * @param slot A slot of the chunk table holding a chunk
+     * @return true if the chunk differs from what generation would give
+     */
+    private boolean isModified(int slot) {
+        return !generated[slot] || generatedVersions[slot] != grids[slot].getVersion();
+    }
+
+    /**
+     * Returns the chunk at a chunk position, generating it if it is not loaded
+     * @param cx The X co-ordinate of the chunk
+     * @param cy The Y co-ordinate of the chunk
+     * @return the TileGrid holding the chunk's tiles
+     */
+    private TileGrid chunk(int cx, int cy) {
+        long key = ((long) cx << 32) | (cy & 0xffffffffL);
+        TileGrid chunk = grids[find(key)];
+        if (chunk == null) {
+            chunk = generateChunk(cx, cy);
+            put(key, chunk, true, chunk.getVersion());
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns the slot of the chunk table where the first probe for a key is made
+     * @param key The key of a chunk
+     * @return the slot
+     */
+    private int home(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (grids.length - 1);
+    }
+
+    /**
+     * Finds the slot holding a chunk, or the empty slot where it would be added
+     * @param key The key of the chunk
+     * @return the slot
+     */
+    private int find(long key) {
+        int mask = grids.length - 1;
+        int slot = home(key);
+        while (grids[slot] != null && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Adds a chunk to the table or replaces the chunk with the same key,
+     * doubling the table when it becomes half full
+     * @param key The key of the chunk
+     * @param chunk The chunk's tiles
+     * @param isGenerated Whether the chunk was generated rather than loaded
+     * @param version The version of the chunk's tiles when it was generated
+     */
+    private void put(long key, TileGrid chunk, boolean isGenerated, int version) {
+        int slot = find(key);
+        if (grids[slot] == null)
+            loaded++;
+        keys[slot] = key;
+        grids[slot] = chunk;
+        generated[slot] = isGenerated;
+        generatedVersions[slot] = version;
+        if (loaded * 2 > grids.length)
+            grow();
+    }
+
+    /**
+     * Removes the chunk in a slot. The chunks after it in the same run of full
+     * slots are moved back where needed, so every chunk can still be found by
+     * probing from its home slot.
+     * @param slot The slot of the chunk to remove
+     */
+    private void remove(int slot) {
+        int mask = grids.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; grids[i] != null; i = (i + 1) & mask) {
+            if (((i - home(keys[i])) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                grids[hole] = grids[i];
+                generated[hole] = generated[i];
+                generatedVersions[hole] = generatedVersions[i];
+                hole = i;
+            }
+        }
+        grids[hole] = null;
+        loaded--;
+    }
+
+    /**
+     * Doubles the size of the chunk table, adding every chunk to the new table
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        TileGrid[] oldGrids = grids;
+        boolean[] oldGenerated = generated;
+        int[] oldVersions = generatedVersions;
+        keys = new long[oldGrids.length * 2];
+        grids = new TileGrid[oldGrids.length * 2];
+        generated = new boolean[oldGrids.length * 2];
+        generatedVersions = new int[oldGrids.length * 2];
+        loaded = 0;
+        for (int i = 0; i < oldGrids.length; i++)
+            if (oldGrids[i] != null)
+                put(oldKeys[i], oldGrids[i], oldGenerated[i], oldVersions[i]);
+    }
+
+    /**
+     * Generates the tiles of one chunk using a random number generator seeded
+     * from the level seed and the chunk position, then carves a floor corridor
+     * across the chunk from each door to the opposite one. Tiles beyond the
+     * edge of the level are left as walls.
+     * @param cx The X co-ordinate of the chunk
+     * @param cy The Y co-ordinate of the chunk
+     * @return a new TileGrid holding the chunk's tiles
+     */
+    private TileGrid generateChunk(int cx, int cy) {
+        chunksGenerated++;
+        TileGrid chunk = new TileGrid(CHUNK_SIZE, CHUNK_SIZE);
+        Random r = new Random(seed ^ (cx * 0x9E3779B97F4A7C15L) ^ (cy * 0xC2B2AE3D27D4EB4FL));
+        int baseX = cx << CHUNK_SHIFT, baseY = cy << CHUNK_SHIFT;
+        for (int y = 0; y < CHUNK_SIZE; y++) {
+            for (int x = 0; x < CHUNK_SIZE; x++) {
+                if (baseX + x < width && baseY + y < height)
+                    chunk.set(x, y, r.nextInt(3) == 1 ? TileType.WALL : TileType.FLOOR);
+            }
+        }
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            if (baseX + i < width && baseY + DOOR < height)
+                chunk.set(i, DOOR, TileType.FLOOR);     //west door to east door
+            if (baseX + DOOR < width && baseY + i < height)
+                chunk.set(DOOR, i, TileType.FLOOR);     //north door to south door
+        }
+        return chunk;
+    }
+}
@@ -6,11 +6,89 @@
 package uk.ac.bradford.dungeongame;
 
 /**
- *
+ * Measures the passing of game time for the real-time game loop. Each call to
+ * update works out how much time has passed since the last call (the delta),
+ * scaled by a time multiplier so the game can run faster or slower than real
+ * time. While the clock is paused no game time passes.
  * @author GCONAM
  */
 public class Clock {
-    private static boolean pause = false;
-    public static long lastFrame, totalTime;
-    public static float d = 0, multiplier=1;
+    private volatile boolean pause = false;
+    private long lastFrame, totalTime;          //nanoseconds
+    private float d = 0;                        //seconds of game time in the last update
+    private volatile float multiplier = 1;
+
+    /**
+     * Creates a running clock with a multiplier of 1
+     */
+    public Clock() {
+        lastFrame = System.nanoTime();
+    }
+
+    /**
+     * Works out the game time that has passed since the last update. Real time
+     * that passes while the clock is paused is discarded.
+     * @return the game time passed in seconds, scaled by the multiplier
+     */
+    public float update() {
+        long now = System.nanoTime();
+        long elapsed = now - lastFrame;
+        lastFrame = now;
+        if (pause) {
+            d = 0;
+        } else {
+            float m = multiplier;
+            d = elapsed / 1e9f * m;
+            totalTime += (long) (elapsed * (double) m);
+        }
+        return d;
+    }
+
+    /**
+     * Returns the game time passed in the last update
+     * @return the delta in seconds
+     */
+    public float getDelta() {
+        return d;
+    }
+
+    /**
+     * Returns the game time passed since the clock was created
+     * @return the total game time in nanoseconds
+     */
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * Sets how fast game time passes compared to real time, e.g. 2 for double speed
+     * @param multiplier The time multiplier; negative values are treated as 0
+     */
+    public void setMultiplier(float multiplier) {
+        this.multiplier = Math.max(0, multiplier);
+    }
+
+    /**
+     * Returns how fast game time passes compared to real time
+     * @return the time multiplier
+     */
+    public float getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Pauses or resumes the clock
+     * @param paused true to stop game time passing, false to start it again
+     */
+    public void setPaused(boolean paused) {
+        pause = paused;
+    }
+
+    /**
+     * Checks whether the clock is paused
+     * @return true if no game time is passing
+     */
+    public boolean isPaused() {
+        return pause;
+    }
 }
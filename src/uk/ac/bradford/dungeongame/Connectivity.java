@@ -0,0 +1,246 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The Connectivity class makes sure every passable tile of a generated level
+ * can be reached from every other, so the player's spawn, the stairs and any
+ * chests are always reachable on the first attempt. The passable tiles are
+ * labelled into regions (tiles joined up, down, left or right) in a single pass
+ * with a union-find structure. Regions too small to be worth reaching are
+ * filled in with walls, and the rest are joined into one by carving an L-shaped
+ * corridor from each region to the one before it. The work is linear in the
+ * number of tiles, plus the length of the corridors.
+ * @author prtrundl
+ */
+public class Connectivity {
+
+    /**
+     * Regions with fewer tiles than this are filled in rather than joined up,
+     * unless they are the largest region of the level
+     */
+    public static final int MIN_REGION_SIZE = 8;
+
+    /**
+     * Union-find parent of each provisional region label, and for labels that
+     * are their own parent, the size of the region and its first tile
+     */
+    private int[] parent = new int[64];
+    private int[] size = new int[64];
+    private int[] first = new int[64];
+    private int labels;
+
+    /**
+     * The region label of each tile, or 0 for tiles that are not passable
+     */
+    private final int[] cells;
+
+    private final TileGrid grid;
+
+    /**
+     * Labels the regions of a level
+     * @param grid The level to label
+     */
+    private Connectivity(TileGrid grid) {
+        this.grid = grid;
+        cells = new int[grid.getWidth() * grid.getHeight()];
+        label();
+    }
+
+    /**
+     * Joins the passable tiles of a level into a single region, filling in
+     * regions smaller than MIN_REGION_SIZE and carving corridors between the
+     * rest
+     * @param grid The level to change
+     * @return the number of regions the level had before it was joined
+     */
+    public static int connect(TileGrid grid) {
+        return new Connectivity(grid).join();
+    }
+
+    /**
+     * Counts the separate regions of passable tiles in a level
+     * @param grid The level to check
+     * @return the number of regions, 1 for a fully connected level
+     */
+    public static int countRegions(TileGrid grid) {
+        return new Connectivity(grid).roots().length;
+    }
+
+    /**
+     * Gives every passable tile a region label. Each tile joins the region of
+     * the tile to its left or above it, and when both are passable their
+     * regions are merged.
+     */
+    private void label() {
+        int w = grid.getWidth(), h = grid.getHeight();
+        for (int y = 0, i = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, i++) {
+                if (!grid.isPassable(x, y))
+                    continue;
+                int left = x > 0 ? cells[i - 1] : 0;
+                int up = y > 0 ? cells[i - w] : 0;
+                int region;
+                if (left == 0 && up == 0)
+                    region = newLabel(i);
+                else if (up == 0)
+                    region = find(left);
+                else if (left == 0)
+                    region = find(up);
+                else
+                    region = union(left, up);
+                cells[i] = region;
+                size[region]++;
+            }
+        }
+    }
+
+    /**
+     * Starts a new region with no tiles
+     * @param tile The index of the first tile of the region
+     * @return the new label
+     */
+    private int newLabel(int tile) {
+        int l = ++labels;
+        if (l == parent.length) {
+            parent = Arrays.copyOf(parent, l * 2);
+            size = Arrays.copyOf(size, l * 2);
+            first = Arrays.copyOf(first, l * 2);
+        }
+        parent[l] = l;
+        first[l] = tile;
+        return l;
+    }
+
+    /**
+     * Finds the label a region is known by, halving the path to it as it goes
+     * @param l Any label of the region
+     * @return the root label of the region
+     */
+    private int find(int l) {
+        while (parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
+        }
+        return l;
+    }
+
+    /**
+     * Merges two regions, keeping the label of the larger
+     * @param a A label of the first region
+     * @param b A label of the second region
+     * @return the root label of the merged region
+     */
+    private int union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b)
+            return a;
+        if (size[a] < size[b]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+        first[a] = Math.min(first[a], first[b]);
+        return a;
+    }
+
+    /**
+     * Lists the root label of every region in the order of their first tiles
+     * @return the root labels
+     */
+    private int[] roots() {
+        int count = 0;
+        for (int l = 1; l <= labels; l++)
+            if (parent[l] == l)
+                count++;
+        int[] roots = new int[count];
+        for (int l = 1, n = 0; l <= labels; l++)
+            if (parent[l] == l)
+                roots[n++] = l;
+        //labels are made in tile order, but a merged region keeps the earlier first tile
+        long[] byFirst = new long[count];
+        for (int n = 0; n < count; n++)
+            byFirst[n] = (long) first[roots[n]] << 32 | roots[n];
+        Arrays.sort(byFirst);
+        for (int n = 0; n < count; n++)
+            roots[n] = (int) byFirst[n];
+        return roots;
+    }
+
+    /**
+     * Fills in the small regions and joins the rest with corridors
+     * @return the number of regions before joining
+     */
+    private int join() {
+        int[] roots = roots();
+        if (roots.length <= 1)
+            return roots.length;
+        int largest = roots[0];
+        for (int root : roots)
+            if (size[root] > size[largest])
+                largest = root;
+        boolean[] kept = new boolean[labels + 1];
+        boolean filling = false;
+        for (int root : roots) {
+            kept[root] = root == largest || size[root] >= MIN_REGION_SIZE;
+            filling |= !kept[root];
+        }
+        if (filling) {
+            int w = grid.getWidth();
+            for (int i = 0; i < cells.length; i++)
+                if (cells[i] != 0 && !kept[find(cells[i])])
+                    grid.set(i % w, i / w, TileType.WALL);
+        }
+        int previous = -1;
+        boolean acrossFirst = true;         //alternate the shape of the corridors
+        for (int root : roots) {
+            if (!kept[root])
+                continue;
+            if (previous >= 0) {
+                carveCorridor(grid, first[previous], first[root], acrossFirst);
+                acrossFirst = !acrossFirst;
+            }
+            previous = root;
+        }
+        return roots.length;
+    }
+
+    /**
+     * Carves an L-shaped corridor of floor between two tiles. Tiles that are
+     * already passable (such as stairs) are left as they are.
+     * @param grid The level to change
+     * @param a The index of the tile at one end
+     * @param b The index of the tile at the other end
+     * @param acrossFirst true to go across from a and then down or up to b,
+     * false to go down or up first
+     */
+    static void carveCorridor(TileGrid grid, int a, int b, boolean acrossFirst) {
+        int w = grid.getWidth();
+        int ax = a % w, ay = a / w, bx = b % w, by = b / w;
+        int cornerX = acrossFirst ? bx : ax;
+        int cornerY = acrossFirst ? ay : by;
+        carveLine(grid, ax, ay, cornerX, cornerY);
+        carveLine(grid, cornerX, cornerY, bx, by);
+    }
+
+    /**
+     * Carves a straight horizontal or vertical line of floor between two tiles
+     * @param grid The level to change
+     * @param x0 The X co-ordinate of the first tile
+     * @param y0 The Y co-ordinate of the first tile
+     * @param x1 The X co-ordinate of the second tile
+     * @param y1 The Y co-ordinate of the second tile
+     */
+    private static void carveLine(TileGrid grid, int x0, int y0, int x1, int y1) {
+        for (int x = Math.min(x0, x1); x <= Math.max(x0, x1); x++)
+            if (!grid.isPassable(x, y0))
+                grid.set(x, y0, TileType.FLOOR);
+        for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++)
+            if (!grid.isPassable(x0, y))
+                grid.set(x0, y, TileType.FLOOR);
+    }
+}
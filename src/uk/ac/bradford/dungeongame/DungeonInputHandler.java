@@ -13,6 +13,8 @@ import java.awt.event.KeyListener;
 public class DungeonInputHandler implements KeyListener {
 
     GameEngine engine;      //GameEngine that this class calls methods from
+    GameLoop loop;          //real-time loop that moves are queued on, or null
+    InputQueue queue;       //queue read by the game thread, or null
     
     /**
      * Constructor that forms a connection between a DungeonInputHandler object and
@@ -24,6 +26,30 @@ public class DungeonInputHandler implements KeyListener {
         engine = eng;
     }
     
+    /**
+     * Constructor for doing turns on a separate game thread. Each key press is
+     * turned into a command and offered to the queue, which is read by a
+     * TurnProcessor, so the Swing event thread never waits for a turn.
+     * @param eng The GameEngine object that this DungeonInputHandler is linked to
+     * @param queue The queue read by the game thread
+     */
+    public DungeonInputHandler(GameEngine eng, InputQueue queue) {
+        engine = eng;
+        this.queue = queue;
+    }
+    
+    /**
+     * Constructor for playing in real time. Arrow keys queue the player's move
+     * for the next tick of the game loop instead of doing a turn, P pauses and
+     * resumes the game, and the plus and minus keys speed it up and slow it down.
+     * @param eng The GameEngine object that this DungeonInputHandler is linked to
+     * @param loop The GameLoop running the engine
+     */
+    public DungeonInputHandler(GameEngine eng, GameLoop loop) {
+        engine = eng;
+        this.loop = loop;
+    }
+    
     /**
      * Unused method
      * @param e 
@@ -35,11 +61,22 @@ public class DungeonInputHandler implements KeyListener {
      * Method to handle key presses captured by the GameGUI. The method currently
      * calls the game engine to do a game turn for any key press, but if the up,
      * down, left or right arrow keys are pressed it also calls methods in the
-     * engine to update the game by moving the player (and monsters if implemented)
+     * engine to update the game by moving the player (and monsters if implemented).
+     * F5 quick saves the game and F9 loads the quick save instead of doing a turn.
      * @param e A KeyEvent object generated when a keyboard key is pressed
      */
     @Override
     public void keyPressed(KeyEvent e) {
+        if (loop != null) {
+            realTimeKeyPressed(e);
+            return;
+        }
+        if (queue != null) {
+            queue.offer(toMove(e.getKeyCode()));
+            return;
+        }
+        if (engine.saveOrLoad(toMove(e.getKeyCode())))
+            return;         //F5 quick saves and F9 quick loads
         switch (e.getKeyCode()) {
             case KeyEvent.VK_LEFT: engine.movePlayerLeft(); break;  //handle left arrow key
             case KeyEvent.VK_RIGHT: engine.movePlayerRight(); break;//handle right arrow
@@ -49,6 +86,45 @@ public class DungeonInputHandler implements KeyListener {
         engine.doTurn();    //any key press will result in this method being called
     }
 
+    /**
+     * Converts a key code into one of the GameLoop move or command constants
+     * @param keyCode The code of the key pressed
+     * @return the move for an arrow key, GameLoop.SAVE for F5, GameLoop.LOAD
+     * for F9, or GameLoop.NONE for any other key
+     */
+    private static int toMove(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.VK_LEFT: return GameLoop.LEFT;
+            case KeyEvent.VK_RIGHT: return GameLoop.RIGHT;
+            case KeyEvent.VK_UP: return GameLoop.UP;
+            case KeyEvent.VK_DOWN: return GameLoop.DOWN;
+            case KeyEvent.VK_F5: return GameLoop.SAVE;
+            case KeyEvent.VK_F9: return GameLoop.LOAD;
+            default: return GameLoop.NONE;
+        }
+    }
+
+    /**
+     * Handles a key press while the game is running in real time
+     * @param e A KeyEvent object generated when a keyboard key is pressed
+     */
+    private void realTimeKeyPressed(KeyEvent e) {
+        Clock clock = loop.getClock();
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_LEFT:
+            case KeyEvent.VK_RIGHT:
+            case KeyEvent.VK_UP:
+            case KeyEvent.VK_DOWN:
+            case KeyEvent.VK_F5:
+            case KeyEvent.VK_F9: loop.queueMove(toMove(e.getKeyCode())); break;
+            case KeyEvent.VK_P: clock.setPaused(!clock.isPaused()); break;
+            case KeyEvent.VK_EQUALS:
+            case KeyEvent.VK_ADD: clock.setMultiplier(Math.min(8, clock.getMultiplier() * 2)); break;
+            case KeyEvent.VK_MINUS:
+            case KeyEvent.VK_SUBTRACT: clock.setMultiplier(Math.max(0.125f, clock.getMultiplier() / 2)); break;
+        }
+    }
+
     /**
      * Unused method
      * @param e 
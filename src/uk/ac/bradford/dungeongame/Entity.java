@@ -34,11 +34,26 @@ public class Entity {
      * yPos is the current y position in the game for this entity
      */
     private int yPos;
+    
+    /**
+     * prevX and prevY are the position this entity had at the start of the
+     * current real-time tick, used to draw it part way between two tiles
+     */
+    private int prevX;
+    private int prevY;
+    
     /**
      * type is used to distinguish between the player and monsters in the game
      */
     private EntityType type;
     
+    /**
+     * occupancy is the grid this entity is recorded in, or null if it is not
+     * recorded in one. Only the player is recorded in the grid this way; monsters
+     * are recorded by their MonsterStore.
+     */
+    private OccupancyGrid occupancy;
+    
     /**
      * This constructor is used to create an Entity object to use in the game for both
      * the player and monsters
@@ -53,6 +68,8 @@ public class Entity {
         this.health = maxHealth;
         xPos = x;
         yPos = y;
+        prevX = x;
+        prevY = y;
         this.type = type;
     }
     
@@ -72,16 +89,56 @@ public class Entity {
         return yPos;
     }
     
+    /**
+     * Remembers the current position as the position at the start of a tick.
+     * Called by the engine before each real-time tick.
+     */
+    public void savePosition() {
+        prevX = xPos;
+        prevY = yPos;
+    }
+    
+    /**
+     * This method returns the X position this entity had at the start of the
+     * current tick
+     * @return The previous X co-ordinate of this Entity
+     */
+    public int getPrevX() {
+        return prevX;
+    }
+    
+    /**
+     * This method returns the Y position this entity had at the start of the
+     * current tick
+     * @return The previous Y co-ordinate of this Entity
+     */
+    public int getPrevY() {
+        return prevY;
+    }
+    
     /**
      * Sets the position of the Entity in the game
      * @param x The new X position for this Entity
      * @param y The new Y position for this Entity
      */
     public void setPosition (int x, int y) {
+        if (occupancy != null)
+            occupancy.move(xPos, yPos, x, y, OccupancyGrid.PLAYER);
         xPos = x;
         yPos = y;
     }
     
+    /**
+     * Records this Entity in an occupancy grid at its current position, so the
+     * grid is updated whenever setPosition is called. Passing null stops updates.
+     * @param grid The OccupancyGrid for the current level, or null
+     */
+    public void setOccupancy(OccupancyGrid grid) {
+        occupancy = grid;
+        if (grid != null)
+            grid.put(xPos, yPos, OccupancyGrid.PLAYER);
+    }
+    
     /**
      * Changes the current health value for this Entity, setting the health to
      * maxHealth if the change would cause the health attribute to exceed maxHealth
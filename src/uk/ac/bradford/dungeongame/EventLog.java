@@ -0,0 +1,392 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The EventLog class records diagnostic events from the game without doing any
+ * I/O on the thread that logs them. Events are written into a ring buffer of
+ * preallocated slots and a background writer thread formats and prints them.
+ * Each event has a severity and a category. Warnings and errors are recorded
+ * in every category; DEBUG and INFO events are only recorded in categories
+ * that have been enabled, and only down to the minimum severity, so a
+ * disabled event costs a single check. If the writer falls behind and the
+ * buffer fills, new events are dropped and counted rather than making the game
+ * wait. The writer thread is only started when the first event is recorded.
+ * <p>
+ * Logging is configured with the dungeon.log system property, for example
+ * -Ddungeon.log=debug:generation,input or -Ddungeon.log=info:all. With no
+ * property only warnings and errors are recorded.
+ * @author prtrundl
+ */
+public class EventLog {
+
+    /**
+     * Severity for detailed tracing of the game
+     */
+    public static final int DEBUG = 0;
+
+    /**
+     * Severity for noteworthy game events
+     */
+    public static final int INFO = 1;
+
+    /**
+     * Severity for problems the game can carry on from
+     */
+    public static final int WARN = 2;
+
+    /**
+     * Severity for problems that stop part of the game working
+     */
+    public static final int ERROR = 3;
+
+    /**
+     * Category for level generation
+     */
+    public static final int GENERATION = 0x01;
+
+    /**
+     * Category for player input
+     */
+    public static final int INPUT = 0x02;
+
+    /**
+     * Category for attacks between the player and monsters
+     */
+    public static final int COMBAT = 0x04;
+
+    /**
+     * Category for moving between levels
+     */
+    public static final int LEVEL = 0x08;
+
+    /**
+     * Category for the running of the program itself, such as monitoring
+     */
+    public static final int SYSTEM = 0x10;
+
+    /**
+     * Every category
+     */
+    public static final int ALL = 0xFF;
+
+    /**
+     * Names of the severities, indexed by severity
+     */
+    private static final String[] SEVERITY_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+    /**
+     * Names of the categories, indexed by bit position
+     */
+    private static final String[] CATEGORY_NAMES = {"generation", "input", "combat", "level", "system"};
+
+    /**
+     * The number of event slots in a log created by the default constructor
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The log shared by the game, configured from the dungeon.log property
+     */
+    private static final EventLog DEFAULT = new EventLog(DEFAULT_CAPACITY, System.out);
+
+    static {
+        DEFAULT.configure(System.getProperty("dungeon.log"));
+    }
+
+    /**
+     * The stream events are printed to by the writer thread
+     */
+    private final PrintStream out;
+
+    /**
+     * Mask for turning a sequence number into a slot index; the capacity is a
+     * power of two
+     */
+    private final int mask;
+
+    /**
+     * Time of each event in nanoseconds, from System.nanoTime
+     */
+    private final long[] times;
+
+    /**
+     * Severity and category of each event
+     */
+    private final int[] severities;
+    private final int[] categories;
+
+    /**
+     * Message of each event. Messages should be constant strings so that
+     * logging does not build a new string.
+     */
+    private final String[] messages;
+
+    /**
+     * Optional object (such as a TileType) printed after the message of each event
+     */
+    private final Object[] details;
+
+    /**
+     * Optional numbers printed after the message of each event, and how many
+     * of them there are
+     */
+    private final int[] firstArgs;
+    private final int[] secondArgs;
+    private final int[] argCounts;
+
+    /**
+     * For each slot, one more than the sequence number of the event last
+     * written into it, so the writer can tell when a slot is ready to print
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The sequence number the next event will be written with
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence number of the next event the writer will print
+     */
+    private volatile long tail;
+
+    /**
+     * The number of events dropped because the buffer was full
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The lowest severity that is recorded, and the categories that record
+     * DEBUG and INFO events
+     */
+    private volatile int minSeverity = WARN;
+    private volatile int enabled;
+
+    /**
+     * The background writer thread, started when the first event is recorded
+     */
+    private volatile Thread writer;
+
+    /**
+     * Line buffer reused by the writer thread
+     */
+    private final StringBuilder line = new StringBuilder(128);
+
+    /**
+     * Creates a log that records only warnings and errors
+     * @param capacity The number of event slots, rounded up to a power of two
+     * @param out The stream events are printed to
+     */
+    public EventLog(int capacity, PrintStream out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.out = out;
+        mask = size - 1;
+        times = new long[size];
+        severities = new int[size];
+        categories = new int[size];
+        messages = new String[size];
+        details = new Object[size];
+        firstArgs = new int[size];
+        secondArgs = new int[size];
+        argCounts = new int[size];
+        published = new AtomicLongArray(size);
+    }
+
+    /**
+     * Returns the log shared by the game
+     * @return the default event log
+     */
+    public static EventLog getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Configures the log from a specification such as "debug:generation,input".
+     * The part before the colon is the minimum severity and the part after is a
+     * comma separated list of the categories that record DEBUG and INFO events,
+     * or "all". Without a colon the minimum severity is INFO. A null or empty
+     * specification leaves the log unchanged. Unknown names are ignored.
+     * @param spec The logging specification
+     */
+    public void configure(String spec) {
+        if (spec == null || spec.isEmpty())
+            return;
+        String cats = spec;
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            setMinSeverity(INFO);
+        } else {
+            String sev = spec.substring(0, colon);
+            for (int i = 0; i < SEVERITY_NAMES.length; i++)
+                if (SEVERITY_NAMES[i].equalsIgnoreCase(sev))
+                    setMinSeverity(i);
+            cats = spec.substring(colon + 1);
+        }
+        int mask = 0;
+        for (String name : cats.split(",")) {
+            if (name.trim().equalsIgnoreCase("all"))
+                mask |= ALL;
+            for (int i = 0; i < CATEGORY_NAMES.length; i++)
+                if (CATEGORY_NAMES[i].equalsIgnoreCase(name.trim()))
+                    mask |= 1 << i;
+        }
+        setEnabled(mask);
+    }
+
+    /**
+     * Sets the lowest severity that is recorded
+     * @param severity One of DEBUG, INFO, WARN or ERROR
+     */
+    public void setMinSeverity(int severity) {
+        minSeverity = severity;
+    }
+
+    /**
+     * Sets which categories record DEBUG and INFO events. Warnings and errors
+     * are recorded in every category.
+     * @param categoryMask The enabled categories combined with bitwise or
+     */
+    public void setEnabled(int categoryMask) {
+        enabled = categoryMask;
+    }
+
+    /**
+     * Checks whether events with a severity and category would be recorded.
+     * Callers can use this to skip working out details for a disabled event.
+     * @param severity The severity of the event
+     * @param category The category of the event
+     * @return true if the event would be recorded
+     */
+    public boolean isEnabled(int severity, int category) {
+        return severity >= minSeverity && (severity >= WARN || (enabled & category) != 0);
+    }
+
+    /**
+     * Records an event with just a message
+     * @param severity The severity of the event
+     * @param category The category of the event
+     * @param message The message, which should be a constant string
+     */
+    public void log(int severity, int category, String message) {
+        if (isEnabled(severity, category))
+            append(severity, category, message, null, 0, 0, 0);
+    }
+
+    /**
+     * Records an event with a message followed by an object
+     * @param severity The severity of the event
+     * @param category The category of the event
+     * @param message The message, which should be a constant string
+     * @param detail An object printed after the message when the event is written
+     */
+    public void log(int severity, int category, String message, Object detail) {
+        if (isEnabled(severity, category))
+            append(severity, category, message, detail, 0, 0, 0);
+    }
+
+    /**
+     * Records an event with a message followed by two numbers
+     * @param severity The severity of the event
+     * @param category The category of the event
+     * @param message The message, which should be a constant string
+     * @param a The first number printed after the message
+     * @param b The second number printed after the message
+     */
+    public void log(int severity, int category, String message, int a, int b) {
+        if (isEnabled(severity, category))
+            append(severity, category, message, null, a, b, 2);
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full
+     * @return the number of dropped events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Claims a slot in the ring buffer and writes an event into it. Any thread
+     * can call this; if the buffer is full the event is dropped.
+     */
+    private void append(int severity, int category, String message, Object detail,
+            int a, int b, int argCount) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail > mask) {        //full, the writer is behind
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int i = (int) seq & mask;
+        times[i] = System.nanoTime();
+        severities[i] = severity;
+        categories[i] = category;
+        messages[i] = message;
+        details[i] = detail;
+        firstArgs[i] = a;
+        secondArgs[i] = b;
+        argCounts[i] = argCount;
+        published.lazySet(i, seq + 1);
+        if (writer == null)
+            startWriter();
+    }
+
+    /**
+     * Starts the background writer thread unless another thread has already
+     */
+    private synchronized void startWriter() {
+        if (writer == null) {
+            Thread t = new Thread(this::drain, "dungeon-event-log");
+            t.setDaemon(true);
+            t.start();
+            writer = t;
+        }
+    }
+
+    /**
+     * Body of the writer thread: prints events in order as they are published,
+     * flushing and sleeping briefly whenever the buffer is empty.
+     */
+    private void drain() {
+        boolean unflushed = false;
+        while (true) {
+            long seq = tail;
+            int i = (int) seq & mask;
+            if (published.get(i) != seq + 1) {
+                if (unflushed) {
+                    out.flush();
+                    unflushed = false;
+                }
+                LockSupport.parkNanos(1000000);
+                continue;
+            }
+            write(i);
+            details[i] = null;              //do not keep the object alive
+            tail = seq + 1;
+            unflushed = true;
+        }
+    }
+
+    /**
+     * Formats and prints the event in a slot
+     * @param i The slot index
+     */
+    private void write(int i) {
+        line.setLength(0);
+        line.append(times[i] / 1000000).append(' ')
+                .append(SEVERITY_NAMES[severities[i]]).append(' ')
+                .append(CATEGORY_NAMES[Math.min(Integer.numberOfTrailingZeros(categories[i]), CATEGORY_NAMES.length - 1)])
+                .append(": ").append(messages[i]);
+        if (details[i] != null)
+            line.append(' ').append(details[i]);
+        if (argCounts[i] > 0)
+            line.append(' ').append(firstArgs[i]).append(' ').append(secondArgs[i]);
+        out.println(line);
+    }
+}
@@ -0,0 +1,296 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+
+/**
+ * The FieldOfView class works out which tiles of a level the player can see,
+ * using recursive shadowcasting: each of the eight octants around the player is
+ * scanned row by row outwards, and an opaque tile narrows the range of slopes
+ * still visible in the rows beyond it. Only tiles within the radius are scanned,
+ * so the cost depends on the radius rather than the size of the level.
+ * <p>
+ * The visible tiles are kept in a bitset, one bit per tile, along with a second
+ * bitset of every tile that has been seen since the level was entered. Like the
+ * FlowField, the visible tiles are only recalculated when the player moves or a
+ * tile in the level changes, and only the part of the bitset that was visible
+ * before is cleared.
+ * @author prtrundl
+ */
+public class FieldOfView {
+
+    /**
+     * Multipliers that turn the row and column scanned in the first octant into
+     * offsets in each of the eight octants
+     */
+    private static final int[] XX = {1, 0, 0, -1, -1, 0, 0, 1};
+    private static final int[] XY = {0, 1, -1, 0, 0, -1, 1, 0};
+    private static final int[] YX = {0, 1, 1, 0, 0, -1, -1, 0};
+    private static final int[] YY = {1, 0, 0, 1, -1, 0, 0, -1};
+
+    private final int width;
+    private final int height;
+    private final int radius;
+
+    /**
+     * The number of longs holding each row of a bitset. Rows start on a new long
+     * so that a rectangle of bits can be cleared a row at a time.
+     */
+    private final int rowWords;
+
+    /**
+     * One bit per tile: set for tiles visible from the origin, and for tiles
+     * that have been visible since the level was entered
+     */
+    private final long[] visible;
+    private final long[] seen;
+
+    /**
+     * Holds the old seen tiles while shift moves them, so scrolling does not
+     * allocate
+     */
+    private final long[] shifted;
+
+    /**
+     * Counts recalculations of the visible tiles and additions to the seen
+     * tiles, so that a renderer can tell when its copy is out of date
+     */
+    private int version;
+    private int seenVersion;
+
+    /**
+     * The rows and columns that may hold visible bits, cleared before the next
+     * recalculation
+     */
+    private int minX, minY, maxX = -1, maxY = -1;
+
+    /**
+     * The grid, grid version and origin the visible tiles were calculated for
+     */
+    private TileGrid grid;
+    private int gridVersion;
+    private int originX = -1;
+    private int originY = -1;
+
+    /**
+     * Creates a field of view for a level of the given size with nothing visible
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     * @param radius The furthest distance in tiles that can be seen
+     */
+    public FieldOfView(int width, int height, int radius) {
+        this.width = width;
+        this.height = height;
+        this.radius = radius;
+        rowWords = (width + 63) >>> 6;
+        visible = new long[rowWords * height];
+        seen = new long[rowWords * height];
+        shifted = new long[rowWords * height];
+    }
+
+    /**
+     * Returns the width of the level this field of view covers
+     * @return the width in tiles
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the level this field of view covers
+     * @return the height in tiles
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Makes sure the visible tiles are up to date for a level and origin,
+     * recalculating them only if the origin has moved or the level has changed
+     * since the last call. Moving to a different grid forgets the seen tiles.
+     * @param tiles The current level, the same size as this field of view
+     * @param x The X co-ordinate of the origin, normally the player
+     * @param y The Y co-ordinate of the origin
+     * @return true if the visible tiles were recalculated
+     */
+    public boolean update(TileGrid tiles, int x, int y) {
+        if (tiles == grid && tiles.getVersion() == gridVersion && x == originX && y == originY)
+            return false;
+        if (tiles != grid)
+            Arrays.fill(seen, 0);
+        grid = tiles;
+        gridVersion = tiles.getVersion();
+        originX = x;
+        originY = y;
+        compute();
+        return true;
+    }
+
+    /**
+     * Forgets the visible and seen tiles, as when a new game starts on the same grid
+     */
+    public void reset() {
+        Arrays.fill(visible, 0);
+        Arrays.fill(seen, 0);
+        maxX = maxY = -1;
+        grid = null;
+        version++;
+        seenVersion++;
+    }
+
+    /**
+     * Moves the seen tiles by an offset, for a level window that has scrolled
+     * so that every tile is now at a new position. Seen tiles moved outside the
+     * level are forgotten. The visible tiles are recalculated on the next update.
+     * @param dx The change in X co-ordinate of every tile
+     * @param dy The change in Y co-ordinate of every tile
+     */
+    public void shift(int dx, int dy) {
+        long[] old = shifted;
+        System.arraycopy(seen, 0, old, 0, seen.length);
+        Arrays.fill(seen, 0);
+        for (int w = 0; w < old.length; w++) {
+            for (long bits = old[w]; bits != 0; bits &= bits - 1) {
+                int x = ((w % rowWords) << 6) + Long.numberOfTrailingZeros(bits) + dx;
+                int y = w / rowWords + dy;
+                if (x >= 0 && y >= 0 && x < width && y < height)
+                    seen[y * rowWords + (x >>> 6)] |= 1L << x;
+            }
+        }
+        originX = originY = -1;
+        seenVersion++;
+    }
+
+    /**
+     * Checks whether a tile is visible from the origin
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is visible
+     */
+    public boolean isVisible(int x, int y) {
+        return (visible[y * rowWords + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Checks whether a tile has been visible since the level was entered
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile has been seen
+     */
+    public boolean isSeen(int x, int y) {
+        return (seen[y * rowWords + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns a number that changes every time the visible tiles are recalculated
+     * @return the current version of the visible tiles
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns a number that changes every time a tile is seen for the first time
+     * @return the current version of the seen tiles
+     */
+    public int getSeenVersion() {
+        return seenVersion;
+    }
+
+    /**
+     * Copies the visible and seen tiles of another field of view of the same
+     * size, so that a renderer can draw a copy that does not change under it
+     * @param other The field of view to copy
+     */
+    public void copyFrom(FieldOfView other) {
+        System.arraycopy(other.visible, 0, visible, 0, visible.length);
+        System.arraycopy(other.seen, 0, seen, 0, seen.length);
+        version = other.version;
+        seenVersion = other.seenVersion;
+    }
+
+    /**
+     * Recalculates the visible tiles by clearing those visible before and
+     * casting light into each octant around the origin
+     */
+    private void compute() {
+        for (int y = minY; y <= maxY; y++)
+            Arrays.fill(visible, y * rowWords + (minX >>> 6), y * rowWords + (maxX >>> 6) + 1, 0);
+        minX = Math.max(0, originX - radius);
+        maxX = Math.min(width - 1, originX + radius);
+        minY = Math.max(0, originY - radius);
+        maxY = Math.min(height - 1, originY + radius);
+        version++;
+        int before = seenVersion;
+        mark(originX, originY);
+        for (int octant = 0; octant < 8; octant++)
+            castLight(1, 1.0, 0.0, XX[octant], XY[octant], YX[octant], YY[octant]);
+        if (seenVersion != before)
+            seenVersion = before + 1;       //one new version however many tiles were seen
+    }
+
+    /**
+     * Scans one octant outwards from a row, marking tiles whose centres lie
+     * between two slopes as visible. When a run of opaque tiles ends, the rows
+     * beyond it are scanned by a recursive call with the narrowed slopes.
+     * @param row The distance from the origin of the first row to scan
+     * @param start The slope of the start of the visible range
+     * @param end The slope of the end of the visible range
+     * @param xx Octant multiplier from column to X offset
+     * @param xy Octant multiplier from row to X offset
+     * @param yx Octant multiplier from column to Y offset
+     * @param yy Octant multiplier from row to Y offset
+     */
+    private void castLight(int row, double start, double end, int xx, int xy, int yx, int yy) {
+        if (start < end)
+            return;
+        int radiusSquared = radius * radius + radius;   //rounder edge than radius * radius
+        double newStart = 0;
+        for (int j = row; j <= radius; j++) {
+            boolean blocked = false;
+            int dy = -j;
+            for (int dx = -j; dx <= 0; dx++) {
+                double leftSlope = (dx - 0.5) / (dy + 0.5);
+                double rightSlope = (dx + 0.5) / (dy - 0.5);
+                if (start < rightSlope)
+                    continue;
+                if (end > leftSlope)
+                    break;
+                int x = originX + dx * xx + dy * xy;
+                int y = originY + dx * yx + dy * yy;
+                boolean inside = x >= 0 && y >= 0 && x < width && y < height;
+                if (inside && dx * dx + dy * dy <= radiusSquared)
+                    mark(x, y);
+                boolean opaque = !inside || grid.isOpaque(x, y);
+                if (blocked) {
+                    if (opaque) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else if (opaque && j < radius) {
+                    blocked = true;
+                    castLight(j + 1, start, leftSlope, xx, xy, yx, yy);
+                    newStart = rightSlope;
+                }
+            }
+            if (blocked)
+                break;
+        }
+    }
+
+    /**
+     * Marks a tile as visible and seen
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     */
+    private void mark(int x, int y) {
+        int w = y * rowWords + (x >>> 6);
+        long bit = 1L << x;
+        visible[w] |= bit;
+        if ((seen[w] & bit) == 0) {
+            seen[w] |= bit;
+            seenVersion++;
+        }
+    }
+}
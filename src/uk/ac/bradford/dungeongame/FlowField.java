@@ -0,0 +1,117 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+
+/**
+ * The FlowField class holds the walking distance from every tile in a level to
+ * a single target tile (normally the player), found with a breadth-first search
+ * through passable tiles. It is shared by every monster: instead of searching
+ * for its own path, a monster just steps to the neighbouring tile with the
+ * smallest distance. The distances are only recalculated when the target moves
+ * or a tile in the level changes, so turns where the player stands still cost
+ * nothing here.
+ * @author prtrundl
+ */
+public class FlowField {
+
+    /**
+     * The distance stored for tiles that cannot reach the target
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * Offsets to the four neighbours of a tile: left, right, up and down
+     */
+    static final int[] DX = {-1, 1, 0, 0};
+    static final int[] DY = {0, 0, -1, 1};
+
+    private final int width;
+    private final int height;
+
+    /**
+     * The distance of each tile from the target, stored row by row
+     */
+    private final int[] distances;
+
+    /**
+     * Reused queue of tile indexes for the breadth-first search
+     */
+    private final int[] queue;
+
+    /**
+     * The grid, grid version and target the distances were calculated for
+     */
+    private TileGrid grid;
+    private int gridVersion;
+    private int targetX = -1;
+    private int targetY = -1;
+
+    /**
+     * Creates a flow field for a level of the given size
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     */
+    public FlowField(int width, int height) {
+        this.width = width;
+        this.height = height;
+        distances = new int[width * height];
+        queue = new int[width * height];
+        Arrays.fill(distances, UNREACHABLE);
+    }
+
+    /**
+     * Makes sure the distances are up to date for a level and target,
+     * recalculating them only if the target has moved or the level has changed
+     * since the last call.
+     * @param tiles The current level
+     * @param x The X co-ordinate of the target
+     * @param y The Y co-ordinate of the target
+     * @return true if the distances were recalculated
+     */
+    public boolean update(TileGrid tiles, int x, int y) {
+        if (tiles == grid && tiles.getVersion() == gridVersion && x == targetX && y == targetY)
+            return false;
+        grid = tiles;
+        gridVersion = tiles.getVersion();
+        targetX = x;
+        targetY = y;
+        compute();
+        return true;
+    }
+
+    /**
+     * Returns the walking distance from a tile to the target
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return the number of steps to the target, or UNREACHABLE
+     */
+    public int get(int x, int y) {
+        return distances[y * width + x];
+    }
+
+    /**
+     * Fills in the distances with a breadth-first search out from the target
+     */
+    private void compute() {
+        Arrays.fill(distances, UNREACHABLE);
+        int head = 0, tail = 0;
+        int start = targetY * width + targetX;
+        distances[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            int cx = cell % width, cy = cell / width;
+            int next = distances[cell] + 1;
+            for (int d = 0; d < 4; d++) {
+                int nx = cx + DX[d], ny = cy + DY[d];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    continue;
+                int n = ny * width + nx;
+                if (distances[n] == UNREACHABLE && grid.isPassable(nx, ny)) {
+                    distances[n] = next;
+                    queue[tail++] = n;
+                }
+            }
+        }
+    }
+}
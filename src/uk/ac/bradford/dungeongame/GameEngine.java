@@ -1,499 +1,1371 @@
-package uk.ac.bradford.dungeongame;
-
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Random;
-
-/**
- * The GameEngine class is responsible for managing information about the game,
- * creating levels, the player and monsters, as well as updating information
- * when a key is pressed while the game is running.
- * @author prtrundl
- */
-public class GameEngine {
-    
-    public Point playerPosition;
-    public Point monsterOnePosition;
-    public Point monsterTwoPosition;
-    public Point monsterThreePosition;
-    public Point monsterFourPosition;
-    
-    int velY = 0, velX = 0;
-    
-    
-    int[][] tileMap;
-    public void generateMap(int row, int col){
-        
-        tileMap = new int[row][col];
-        Random r = new Random();
-        int randInt = 0;
-        for (int i = 0; i<tileMap.length; i++){
-            for (int j=0; j<tileMap[i].length; j++){
-                randInt = r.nextInt(3);
-                if(randInt>WALL_CHANCE){
-                    tileMap[i][j] = 0;
-                    //mySpawns.add(new Point(i,j));
-                }
-                tileMap[i][j] = randInt;
-                System.out.print(tileMap[i][j]);
-            }
-            System.out.println();
-        }
-        
-    }
-
-    int[][] map = {
-        {1,1,1,1,1,1,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,1,1,0,0,3,1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-        {1,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0},
-    };
-    
-    /**
-     * An enumeration type to represent different types of tiles that make up
-     * a dungeon level. Each type has a corresponding image file that is used
-     * to draw the right tile to the screen for each tile in a level. Floors are
-     * open for monsters and the player to move into, walls should be impassable,
-     * stairs allow the player to progress to the next level of the dungeon, and
-     * chests can yield a reward when moved over.
-     */
-    public enum TileType {
-        WALL, FLOOR, CHEST, STAIRS
-    }
-
-    /**
-     * The width of the dungeon level, measured in tiles. Changing this may
-     * cause the display to draw incorrectly, and as a minimum the size of the
-     * GUI would need to be adjusted.
-     */
-    public static final int DUNGEON_WIDTH = 25;
-    
-    /**
-     * The height of the dungeon level, measured in tiles. Changing this may
-     * cause the display to draw incorrectly, and as a minimum the size of the
-     * GUI would need to be adjusted.
-     */
-    public static final int DUNGEON_HEIGHT = 18;
-    
-    /**
-     * The maximum number of monsters that can be generated on a single level
-     * of the dungeon. This attribute can be used to fix the size of an array
-     * (or similar) that will store monsters.
-     */
-    public static final int MAX_MONSTERS = 40;
-    
-    /**
-     * The chance of a wall being generated instead of a floor when generating
-     * the level. 1.0 is 100% chance, 0.0 is 0% chance.
-     */
-    public static final double WALL_CHANCE = 0.05;
-
-    /**
-     * A random number generator that can be used to include randomised choices
-     * in the creation of levels, in choosing places to spawn the player and
-     * monsters, and to randomise movement and damage. This currently uses a seed
-     * value of 123 to generate random numbers - this helps you find bugs by
-     * giving you the same numbers each time you run the program. Remove
-     * the seed value if you want different results each game.
-     */
-    private Random rng = new Random(123);
-
-    /**
-     * The current level number for the dungeon. As the player moves down stairs
-     * the level number should be increased and can be used to increase the
-     * difficulty e.g. by creating additional monsters with more health.
-     */
-    private int depth = 1;  //current dunegeon level
-
-    /**
-     * The GUI associated with a GameEngine object. THis link allows the engine
-     * to pass level (tiles) and entity information to the GUI to be drawn.
-     */
-    private GameGUI gui;
-
-    /**
-     * The 2 dimensional array of tiles the represent the current dungeon level.
-     * The size of this array should use the DUNGEON_HEIGHT and DUNGEON_WIDTH
-     * attributes when it is created.
-     */
-    private TileType[][] tiles;
-    
-    /**
-     * An ArrayList of Point objects used to create and track possible locations
-     * to spawn the player and monsters.
-     */
-    private ArrayList<Point> spawns;
-    private ArrayList<Point> mySpawns;
-
-    /**
-     * An Entity object that is the current player. This object stores the state
-     * information for the player, including health and the current position (which
-     * is a pair of co-ordinates that corresponds to a tile in the current level)
-     */
-    private Entity player;
-    
-    /**
-     * An array of Entity objects that represents the monsters in the current
-     * level of the dungeon. Elements in this array should be of the type Entity,
-     * meaning that a monster is alive and needs to be drawn or moved, or should
-     * be null which means nothing is drawn or processed for movement.
-     * Null values in this array are skipped during drawing and movement processing.
-     * Monsters (Entity objects) that die due to player attacks can be replaced
-     * with the value null in this array which removes them from the game.
-     */
-    private Entity[] monsters;
-
-    /**
-     * Constructor that creates a GameEngine object and connects it with a GameGUI
-     * object.
-     * @param gui The GameGUI object that this engine will pass information to in
-     * order to draw levels and entities to the screen.
-     */
-    public GameEngine(GameGUI gui) {
-        this.gui = gui;
-        startGame();
-    }
-
-    /**
-     * Generates a new dungeon level. The method builds a 2D array of TileType values
-     * that will be used to draw tiles to the screen and to add a variety of
-     * elements into each level. Tiles can be floors, walls, stairs (to progress
-     * to the next level of the dungeon) or chests. The method should contain
-     * the implementation of an algorithm to create an interesting and varied
-     * level each time it is called.
-     * @return A 2D array of TileTypes representing the tiles in the current
-     * level of the dungeon. The size of this array should use the width and
-     * height of the dungeon.
-     */
-    private TileType[][] generateLevel() {
-        //Add your code here to build a 2D array containing TileType values to create a level
-        //return the 2D array
-        //generateMap(DUNGEON_HEIGHT,DUNGEON_WIDTH);
-        TileType[][] tiles = new TileType[DUNGEON_WIDTH][DUNGEON_HEIGHT];
-        for(int row = 0; row < tiles.length; row++){
-            for (int col = 0; col<tiles[row].length; col++){
-                /*switch(tileMap[col][row]){
-                    case 0:
-                        tiles[row][col] = TileType.FLOOR;
-                        break;
-                    case 1:
-                        tiles[row][col] = TileType.WALL;
-                        break;
-                    case 2:
-                        tiles[row][col] = TileType.CHEST;
-                        break;
-                    default:
-                        tiles[row][col]=TileType.STAIRS;
-                        break;
-                }*/
-            }
-        }
-        return tiles;
-    }
-    
-    private TileType[][] generateLevel(int[][] newMap){
-        TileType[][] tiles = new TileType[DUNGEON_WIDTH][DUNGEON_HEIGHT];
-        mySpawns = new ArrayList<>();
-        for(int row = 0; row < tiles.length; row++){
-            for (int col = 0; col<tiles[row].length; col++){
-                switch(newMap[col][row]){
-                    case 0:
-                        tiles[row][col] = TileType.FLOOR;
-                        mySpawns.add(new Point(row,col));
-                        break;
-                    case 1:
-                        tiles[row][col] = TileType.WALL;
-                        break;
-                    default:
-                        tiles[row][col]=TileType.FLOOR;
-                        break;
-                }
-            }
-        }
-        return tiles;
-    }
-    
-    public void setTile(int xCoord, int yCoord, int type){
-        tileMap[xCoord][yCoord] = type;
-    }
-    
-    public int getTile(int xCoord, int yCoord){
-        return tileMap[xCoord][yCoord];
-    }
-    
-    /**
-     * Generates spawn points for the player and monsters. The method processes
-     * the tiles array and finds tiles that are suitable for spawning, i.e.
-     * tiles that are not walls or stairs. Suitable tiles should be added
-     * to the ArrayList that will contain Point objects - Points are a
-     * simple kind of object that contain an X and a Y co-ordinate stored using
-     * the int primitive type and are part of the Java language (search for the
-     * Point API documentation and examples of their use)
-     * @return An ArrayList containing Point objects representing suitable X and
-     * Y co-ordinates in the current level that the player or monsters can be
-     * spawned in
-     */
-    private ArrayList<Point> getSpawns() {
-        mySpawns.remove(playerPosition);
-        ArrayList<Point> s = new ArrayList<Point>();
-        for(int x = 0; x<mySpawns.size(); x++){
-            s.add(mySpawns.get(x));
-        }
-        //Add code here to find tiles in the level array that are suitable spawn points
-        //Add these points to the ArrayList s
-        return s;   
-    }
-
-    /**
-     * Spawns monsters in suitable locations in the current level. The method
-     * uses the spawns ArrayList to pick suitable positions to add monsters,
-     * removing these positions from the spawns ArrayList as they are used
-     * (using the remove() method) to avoid multiple monsters spawning in the
-     * same location. The method creates monsters by instantiating the Entity
-     * class, setting health, and setting the X and Y position for the monster
-     * using the X and Y values in the Point object removed from the spawns ArrayList.
-     * @return A array of Entity objects representing the monsters for the current
-     * level of the dungeon
-     */
-    private Entity[] spawnMonsters() {
-        Entity[] monsters = new Entity[1];
-        for (int y=0; y<monsters.length; y++){
-            monsters[y] = new Entity(100, getSpawns().get(y).x, getSpawns().get(y).y,Entity.EntityType.MONSTER);
-        }
-        
-        //remove monsters positions from spawns
-        
-        return monsters;    //Should be changed to return an array of monsters instead of null
-    }
-
-    /**
-     * Spawns a player entity in the game. The method uses the spawns ArrayList
-     * to select a suitable location to spawn the player and removes the Point
-     * from the spawns ArrayList. The method instantiates the Entity class and
-     * assigns values for the health, position and type of Entity.
-     * @return An Entity object representing the player in the game
-     */
-    private Entity spawnPlayer() {
-        //return null;    //Should be changed to return an Entity (the player) instead of null
-        playerPosition = mySpawns.get(new Random().nextInt(mySpawns.size()-1));
-        return new Entity(100, playerPosition.x, playerPosition.y, Entity.EntityType.PLAYER);
-    }
-
-    /**
-     * Handles the movement of the player when attempting to move left in the
-     * game. This method is called by the DungeonInputHandler class when the
-     * user has pressed the left arrow key on the keyboard. The method checks
-     * whether the tile to the left of the player is empty for movement and if
-     * it is updates the player object's X and Y locations with the new position.
-     * If the tile to the left of the player is not empty the method will not
-     * update the player position, but may make other changes to the game, such
-     * as damaging a monster in the tile to the left, or breaking a wall etc.
-     */
-    public void movePlayerLeft() {
-        velX = -1;
-        int tileType=0;
-        int moveLeft = velX + (player.getX());
-        int y = player.getY();
-        if(moveLeft == 0){}else{
-            tileType = getTile(moveLeft,y);
-            System.out.println(tileType);
-            if(tileType ==0 || tileType ==2){
-                player.setPosition(moveLeft, y);
-            }
-        }
- 
-        
-    }
-
-    /**
-     * Handles the movement of the player when attempting to move right in the
-     * game. This method is called by the DungeonInputHandler class when the
-     * user has pressed the right arrow key on the keyboard. The method checks
-     * whether the tile to the right of the player is empty for movement and if
-     * it is updates the player object's X and Y locations with the new position.
-     * If the tile to the right of the player is not empty the method will not
-     * update the player position, but may make other changes to the game, such
-     * as damaging a monster in the tile to the right, or breaking a wall etc.
-     */
-    public void movePlayerRight() {
-        velX = 1;
-        int tileType=0;
-        int moveRight = velX + (player.getX());
-        int y = player.getY();
-        if(moveRight > 25){}else{
-            tileType = getTile(moveRight,y);
-            System.out.println(tileType);
-            if(tileType ==0 || tileType ==2){
-                player.setPosition(moveRight, y);
-            }
-        }
-    }
-
-    /**
-     * Handles the movement of the player when attempting to move up in the
-     * game. This method is called by the DungeonInputHandler class when the
-     * user has pressed the up arrow key on the keyboard. The method checks
-     * whether the tile above the player is empty for movement and if
-     * it is updates the player object's X and Y locations with the new position.
-     * If the tile above the player is not empty the method will not
-     * update the player position, but may make other changes to the game, such
-     * as damaging a monster in the tile above the player, or breaking a wall etc.
-     */
-    public void movePlayerUp() {
-        velY = -1;
-        int tileType=0;
-        int moveUp = velY + (player.getY());
-        int x = player.getX();
-        if(moveUp < 0){}else{
-            tileType = getTile(x,moveUp);
-            System.out.println(tileType);
-            if(tileType ==0 || tileType ==2){
-                player.setPosition(x, moveUp);
-            }
-        }
-    }
-
-    /**
-     * Handles the movement of the player when attempting to move right in the
-     * game. This method is called by the DungeonInputHandler class when the
-     * user has pressed the down arrow key on the keyboard. The method checks
-     * whether the tile below the player is empty for movement and if
-     * it is updates the player object's X and Y locations with the new position.
-     * If the tile below the player is not empty the method will not
-     * update the player position, but may make other changes to the game, such
-     * as damaging a monster in the tile below the player, or breaking a wall etc.
-     */
-    public void movePlayerDown() {
-        velY = 1;
-        int tileType=0;
-        int moveUp = velY + (player.getY());
-        int x = player.getX();
-        if(moveUp > 18){}else{
-            tileType = getTile(x,moveUp);
-            System.out.println(tileType);
-            if(tileType ==0 || tileType ==2){
-                player.setPosition(x, moveUp);
-            }
-        }
-    }
-
-    /**
-     * Reduces a monster's health in response to the player attempting to move
-     * into the same square as the monster (attacking the monster).
-     * @param m The Entity which is the monster that the player is attacking
-     */
-    private void hitMonster(Entity m) {
-        
-    }
-
-    /**
-     * Moves all monsters on the current level. The method processes all non-null
-     * elements in the monsters array and calls the moveMonster method for each one.
-     */
-    private void moveMonsters() {
-        
-    }
-
-    /**
-     * Moves a specific monster in the game. The method updates the X and Y
-     * attributes of the monster Entity to reflect its new position.
-     * @param m The Entity (monster) that needs to be moved
-     */
-    private void moveMonster(Entity m) {
-        
-    }
-
-    /**
-     * Reduces the health of the player when hit by a monster - a monster next
-     * to the player can attack it instead of moving and should call this method
-     * to reduce the player's health
-     */
-    private void hitPlayer() {
-        
-    }
-
-    /**
-     * Processes the monsters array to find any Entity in the array with 0 or
-     * less health. Any Entity in the array with 0 or less health should be
-     * set to null; when drawing or moving monsters the null elements in the
-     * monsters array are skipped.
-     */
-    private void cleanDeadMonsters() {
-        
-    }
-
-    /**
-     * Called in response to the player moving into a Stair tile in the game.
-     * The method increases the dungeon depth, generates a new level by calling
-     * the generateLevel method, fills the spawns ArrayList with suitable spawn
-     * locations and spawns monsters. Finally it places the player in the new
-     * level by calling the placePlayer() method. Note that a new player object
-     * should not be created here unless the health of the player should be reset.
-     */
-    private void descendLevel() {
-        
-    }
-
-    /**
-     * Places the player in a dungeon level by choosing a spawn location from the
-     * spawns ArrayList, removing the spawn position as it is used. The method sets
-     * the players position in the level by calling its setPosition method with the
-     * x and y values of the Point taken from the spawns ArrayList.
-     */
-    private void placePlayer() {
-        
-    }
-
-    /**
-     * Performs a single turn of the game when the user presses a key on the
-     * keyboard. The method cleans dead monsters, moves any monsters still alive
-     * and then checks if the player is dead, exiting the game or resetting it
-     * after an appropriate output to the user is given. It checks if the player
-     * moved into a stair tile and calls the descendLevel method if it does.
-     * Finally it requests the GUI to redraw the game level by passing it the
-     * tiles, player and monsters for the current level.
-     */
-    public void doTurn() {
-        cleanDeadMonsters();
-        moveMonsters();
-        if (player != null) {       //checks a player object exists
-            if (player.getHealth() < 1) {
-                System.exit(0);     //exits the game when player is dead
-            }
-            if (tiles[player.getX()][player.getY()] == TileType.STAIRS) {
-                descendLevel();     //moves to next level if the player is on Stairs
-            }
-        }
-        gui.updateDisplay(tiles, player, monsters);     //updates GUI
-    }
-
-    /**
-     * Starts a game. This method generates a level, finds spawn positions in
-     * the level, spawns monsters and the player and then requests the GUI to
-     * update the level on screen using the information on tiles, player and
-     * monsters.
-     */
-    public void startGame() {
-        //tiles = generateLevel();
-        generateMap(DUNGEON_HEIGHT,DUNGEON_WIDTH);
-        tiles = generateLevel(tileMap);
-        spawns = getSpawns();
-        monsters = spawnMonsters();
-        player = spawnPlayer();
-        gui.updateDisplay(tiles, player, monsters);
-    }
-}
+package uk.ac.bradford.dungeongame;
+
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import uk.ac.bradford.dungeongame.TurnMetrics.Phase;
+
+/**
+ * The GameEngine class is responsible for managing information about the game,
+ * creating levels, the player and monsters, as well as updating information
+ * when a key is pressed while the game is running.
+ * @author prtrundl
+ */
+public class GameEngine {
+    
+    public Point playerPosition = new Point();
+    public Point monsterOnePosition;
+    public Point monsterTwoPosition;
+    public Point monsterThreePosition;
+    public Point monsterFourPosition;
+    
+    int velY = 0, velX = 0;
+    
+    
+    public void generateMap(int row, int col){
+        
+        tiles = generateMap(row, col, levelGenerator, new Random(levelSeed(seed, depth)));
+        log.log(EventLog.DEBUG, EventLog.GENERATION, "generated map (columns, rows)", col, row);
+        
+    }
+    
+    /**
+     * Generates the tiles of a level: the walls and floors are laid out by a
+     * LevelGenerator, joined up by Connectivity so that every floor can be
+     * reached from every other, and then one floor is replaced by stairs down.
+     * This means the player's spawn, the stairs and the monsters are always
+     * reachable from each other. Only the given random number generator is
+     * used, so this can run on any thread.
+     * @param row The height of the level in tiles
+     * @param col The width of the level in tiles
+     * @param generator The generator that lays out the walls and floors
+     * @param r The random number generator to build the level with
+     * @return a new TileGrid holding the level
+     */
+    static TileGrid generateMap(int row, int col, LevelGenerator generator, Random r){
+        TileGrid grid = generator.generate(col, row, r);
+        int regions = Connectivity.connect(grid);
+        assert Connectivity.countRegions(grid) <= 1 : regions + " regions were not joined";
+        int floors = 0;
+        for (int i = 0; i < row * col; i++)
+            if (grid.get(i) == TileType.FLOOR)
+                floors++;
+        if (floors > 0) {                   //turn a random floor into the stairs
+            int stairs = r.nextInt(floors);
+            for (int i = 0; i < row * col; i++) {
+                if (grid.get(i) == TileType.FLOOR && stairs-- == 0) {
+                    grid.set(i % col, i / col, TileType.STAIRS);
+                    break;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * An enumeration type to represent different types of tiles that make up
+     * a dungeon level. Each type has a corresponding image file that is used
+     * to draw the right tile to the screen for each tile in a level. Floors are
+     * open for monsters and the player to move into, walls should be impassable,
+     * stairs allow the player to progress to the next level of the dungeon, and
+     * chests can yield a reward when moved over.
+     */
+    public enum TileType {
+        WALL, FLOOR, CHEST, STAIRS
+    }
+
+    /**
+     * The width of the dungeon level, measured in tiles. This is also the number
+     * of tiles the GUI shows across; larger (chunked) levels scroll to follow
+     * the player. Changing this means the size of the GUI needs to be adjusted.
+     */
+    public static final int DUNGEON_WIDTH = 25;
+    
+    /**
+     * The height of the dungeon level, measured in tiles. This is also the number
+     * of tiles the GUI shows down; larger (chunked) levels scroll to follow
+     * the player. Changing this means the size of the GUI needs to be adjusted.
+     */
+    public static final int DUNGEON_HEIGHT = 18;
+    
+    /**
+     * The width and height in tiles of the window of a chunked level that is
+     * simulated around the player. Monsters outside this window are removed.
+     */
+    public static final int CHUNK_WINDOW_SIZE = 96;
+    
+    /**
+     * How close (in tiles) the player can get to the edge of the simulated
+     * window of a chunked level before the window is moved to centre on the player.
+     */
+    public static final int CHUNK_WINDOW_MARGIN = 24;
+    
+    /**
+     * How far the player can see, in tiles. Tiles further away are not drawn
+     * until the player comes closer, and monsters further away do not notice
+     * the player.
+     */
+    public static final int FOV_RADIUS = 8;
+    
+    /**
+     * The maximum number of monsters that can be generated on a single level
+     * of the dungeon. This attribute can be used to fix the size of an array
+     * (or similar) that will store monsters.
+     */
+    public static final int MAX_MONSTERS = 40;
+    
+    /**
+     * The amount of health a monster loses each time the player attacks it.
+     */
+    public static final int PLAYER_DAMAGE = 25;
+    
+    /**
+     * The amount of health the player loses each time a monster attacks it.
+     */
+    public static final int MONSTER_DAMAGE = 10;
+    
+    /**
+     * The chance of a wall being generated instead of a floor by the
+     * NoiseGenerator. 1.0 is 100% chance, 0.0 is 0% chance.
+     */
+    public static final double WALL_CHANCE = 0.05;
+
+    /**
+     * The seed of the game. Every level is generated from this seed and its
+     * depth, so the same seed always gives the same dungeon. This currently uses
+     * a seed value of 123 - this helps you find bugs by giving you the same
+     * dungeon each time you run the program. Call setSeed to play a different one.
+     */
+    private long seed = 123;
+
+    /**
+     * A random number generator that can be used to include randomised choices
+     * in choosing places to spawn the player and monsters, and to randomise
+     * movement and damage. It is seeded with the game seed.
+     */
+    private Random rng = new Random(seed);
+
+    /**
+     * The number of generated levels kept by the level cache
+     */
+    public static final int LEVEL_CACHE_SIZE = 16;
+
+    /**
+     * Recently generated levels, so that a level asked for again with the same
+     * seed and depth is copied instead of generated
+     */
+    private final LevelCache levels = new LevelCache(LEVEL_CACHE_SIZE);
+
+    /**
+     * The algorithm that lays out the walls and floors of each level
+     */
+    private LevelGenerator levelGenerator = new CaveGenerator();
+
+    /**
+     * The current level number for the dungeon. As the player moves down stairs
+     * the level number should be increased and can be used to increase the
+     * difficulty e.g. by creating additional monsters with more health.
+     */
+    private int depth = 1;  //current dunegeon level
+    
+    /**
+     * Whether the program exits when the player dies. When false the game is
+     * restarted instead, which is used when the engine runs without a GUI.
+     */
+    private boolean exitOnDeath = true;
+    
+    /**
+     * The smallest number of monsters for which the proposal phase of
+     * moveMonsters is run in parallel; below this the overhead is not worth it.
+     */
+    public static final int PARALLEL_MONSTER_THRESHOLD = 1024;
+    
+    /**
+     * The number of monsters each parallel proposal task processes directly.
+     */
+    private static final int PROPOSE_BATCH = 256;
+    
+    /**
+     * Values stored in proposals for a monster that stays where it is and for
+     * a monster that attacks the player. Any other value is the tile index the
+     * monster wants to move into.
+     */
+    private static final int STAY = -1;
+    private static final int ATTACK = -2;
+    
+    /**
+     * The move proposed by each monster in the current turn, indexed by slot
+     * in the monster store.
+     */
+    private int[] proposals = new int[MAX_MONSTERS];
+    
+    /**
+     * The pool used to propose monster moves in parallel, or null when parallel
+     * monster updates are turned off.
+     */
+    private ForkJoinPool monsterPool;
+    
+    /**
+     * The number of monsters spawned by the last call to startGame, reused when
+     * the game is restarted after the player dies.
+     */
+    private int startMonsters = 1;
+
+    /**
+     * The renderer associated with a GameEngine object. This link allows the engine
+     * to pass level (tiles) and entity information to the GUI to be drawn, or to
+     * a HeadlessRenderer when the engine runs without a window.
+     */
+    private GameRenderer gui;
+
+    /**
+     * The grid of tiles that represents the current dungeon level. The size of
+     * this grid should use the DUNGEON_HEIGHT and DUNGEON_WIDTH attributes when
+     * it is created.
+     */
+    TileGrid tiles;
+    
+    /**
+     * An index of the free tiles used to create and track possible locations
+     * to spawn the player and monsters. Tiles are removed from it as they are
+     * used so nothing spawns on top of something else.
+     */
+    private SpawnIndex spawns = new SpawnIndex(DUNGEON_WIDTH, DUNGEON_HEIGHT);
+
+    /**
+     * An Entity object that is the current player. This object stores the state
+     * information for the player, including health and the current position (which
+     * is a pair of co-ordinates that corresponds to a tile in the current level)
+     */
+    private Entity player;
+    
+    /**
+     * The monsters in the current level of the dungeon, sized by MAX_MONSTERS.
+     * Live monsters are packed into slots 0 to size()-1 of the store, so drawing
+     * and movement processing loop over them without checking for gaps.
+     * Monsters that die due to player attacks are removed from the store, which
+     * removes them from the game.
+     */
+    private MonsterStore monsters = new MonsterStore(MAX_MONSTERS);
+    
+    /**
+     * Records which tile the player and each monster is standing in, so that
+     * collisions and attacks can be found without searching every monster.
+     */
+    private OccupancyGrid occupancy = new OccupancyGrid(DUNGEON_WIDTH, DUNGEON_HEIGHT);
+    
+    /**
+     * The walking distance from every tile to the player, shared by all monsters
+     * to find their way towards the player.
+     */
+    private FlowField flowField = new FlowField(DUNGEON_WIDTH, DUNGEON_HEIGHT);
+    
+    /**
+     * The tiles the player can see and has seen on the current level, used to
+     * decide which monsters notice the player and which tiles are drawn
+     */
+    private FieldOfView fieldOfView = new FieldOfView(DUNGEON_WIDTH, DUNGEON_HEIGHT, FOV_RADIUS);
+    
+    /**
+     * The chunked level being played, or null when playing a normal level. When
+     * set, tiles holds the part of it around the player, starting at the
+     * position originX, originY of the chunked level.
+     */
+    private ChunkedLevel world;
+    private int originX;
+    private int originY;
+    
+    /**
+     * Background thread shared by all engines that builds the next level down
+     * while the player explores the current one, unless an engine is given
+     * a worker of its own.
+     */
+    private static final ExecutorService LEVEL_WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "dungeon-level-worker");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    /**
+     * Where diagnostic events from the engine are recorded. Events are written
+     * to a ring buffer and printed by a background thread, so logging never
+     * makes the game wait for console output.
+     */
+    private EventLog log = EventLog.getDefault();
+    
+    /**
+     * Latency histograms for the phases of a turn and for level generation
+     */
+    private final TurnMetrics metrics = new TurnMetrics();
+    
+    /**
+     * Where the command made on each turn is recorded so the game can be
+     * replayed, or null if the game is not being recorded
+     */
+    private InputJournal journal;
+    
+    /**
+     * The move made by the player since the last turn, as a GameLoop move
+     * constant, which doTurn records in the journal
+     */
+    private int turnMove = GameLoop.NONE;
+    
+    /**
+     * The file used by the quick save and quick load commands
+     */
+    private Path quickSave = QUICK_SAVE;
+    
+    /**
+     * The level being built below the current one, or null if no level is
+     * being prepared.
+     */
+    private Future<Level> nextLevel;
+
+    /**
+     * The executor the next level is built on
+     */
+    private final ExecutorService levelWorker;
+
+    /**
+     * Constructor that creates a GameEngine object and connects it with a
+     * GameRenderer object, usually the GameGUI.
+     * @param gui The GameRenderer object that this engine will pass information to in
+     * order to draw levels and entities to the screen. A HeadlessRenderer can be
+     * passed to run the engine without a GUI.
+     */
+    public GameEngine(GameRenderer gui) {
+        this.gui = gui;
+        levelWorker = LEVEL_WORKER;
+        startGame();
+    }
+
+    /**
+     * Constructor that creates a GameEngine whose first game is played with a
+     * given seed, so the first level is only generated once when the seed is
+     * already known.
+     * @param gui The GameRenderer object that this engine will pass information to
+     * @param seed The seed of the first game
+     */
+    public GameEngine(GameRenderer gui, long seed) {
+        this(gui, seed, LEVEL_WORKER);
+    }
+
+    /**
+     * Constructor that creates a GameEngine whose first game is played with a
+     * given seed, and which builds levels in the background on a given executor
+     * instead of the worker shared by every other engine. Used by a server
+     * running many engines, so the first level is only generated once and the
+     * levels of all its games are built by a pool of its own.
+     * @param gui The GameRenderer object that this engine will pass information to
+     * @param seed The seed of the first game
+     * @param levelWorker The executor the next level down is built on
+     */
+    public GameEngine(GameRenderer gui, long seed, ExecutorService levelWorker) {
+        this.gui = gui;
+        this.levelWorker = levelWorker;
+        setSeed(seed);
+        startGame();
+    }
+
+    /**
+     * Stops building the next level in the background. Called when the engine
+     * will not be used again, so a discarded engine does not leave work queued
+     * on the level worker.
+     */
+    public void close() {
+        if (nextLevel != null) {
+            nextLevel.cancel(false);
+            nextLevel = null;
+        }
+    }
+
+    /**
+     * Generates a new dungeon level. The method builds a TileGrid of TileType values
+     * that will be used to draw tiles to the screen and to add a variety of
+     * elements into each level. Tiles can be floors, walls, stairs (to progress
+     * to the next level of the dungeon) or chests. The method should contain
+     * the implementation of an algorithm to create an interesting and varied
+     * level each time it is called.
+     * @return A TileGrid representing the tiles in the current level of the
+     * dungeon. The size of this grid uses the width and height of the dungeon.
+     */
+    TileGrid generateLevel() {
+        long start = metrics.start();
+        tiles = levels.get(seed, depth, levelGenerator);
+        metrics.stop(Phase.GENERATE_LEVEL, start);
+        log.log(EventLog.DEBUG, EventLog.GENERATION, "level ready (depth, cached levels)",
+                depth, levels.size());
+        return tiles;
+    }
+
+    /**
+     * Generates the tiles of the level at a depth of the dungeon for a game
+     * seed. The same seed, depth and generator always give the same tiles. Used
+     * by the level cache when a level is not already cached.
+     * @param seed The seed of the game
+     * @param depth The depth of the level
+     * @param generator The generator that lays out the walls and floors
+     * @return a new TileGrid holding the level
+     */
+    static TileGrid generateLevel(long seed, int depth, LevelGenerator generator) {
+        return generateMap(DUNGEON_HEIGHT, DUNGEON_WIDTH, generator, new Random(levelSeed(seed, depth)));
+    }
+
+    /**
+     * Mixes a game seed and a depth into the seed for generating that level,
+     * so that neighbouring depths get unrelated levels
+     * @param seed The seed of the game
+     * @param depth The depth of the level
+     * @return the seed for the level's random number generator
+     */
+    static long levelSeed(long seed, int depth) {
+        long z = seed + depth * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    public void setTile(int xCoord, int yCoord, TileType type){
+        tiles.set(xCoord, yCoord, type);
+        if (world != null)
+            world.set(originX + xCoord, originY + yCoord, type);
+    }
+    
+    public TileType getTile(int xCoord, int yCoord){
+        return tiles.get(xCoord, yCoord);
+    }
+    
+    /**
+     * Generates spawn points for the player and monsters. The method processes
+     * the tiles grid and finds tiles that are suitable for spawning, i.e.
+     * tiles that are not walls or stairs. Suitable tiles are added to the
+     * SpawnIndex, which is refilled rather than recreated for each level.
+     * @return The SpawnIndex containing the tiles in the current level that the
+     * player or monsters can be spawned in
+     */
+    SpawnIndex getSpawns() {
+        spawns.fill(tiles);
+        return spawns;
+    }
+
+    /**
+     * Spawns monsters in suitable locations in the current level. The method
+     * takes random tiles from the spawns index to add monsters, removing these
+     * tiles from the index as they are used to avoid multiple monsters spawning
+     * in the same location. The method empties the monster store and adds each
+     * monster with its health and the X and Y position of the tile taken from
+     * the index. If there are fewer spawn points (or less room in the store)
+     * than monsters requested, only as many monsters as fit are created, always
+     * leaving one spawn point for the player.
+     * @param count The number of monsters to spawn
+     * @return The MonsterStore holding the monsters for the current level of
+     * the dungeon
+     */
+    MonsterStore spawnMonsters(int count) {
+        long start = metrics.start();
+        monsters.clear();
+        addMonsters(monsters, spawns, count, rng);
+        metrics.stop(Phase.SPAWN_MONSTERS, start);
+        return monsters;
+    }
+
+    /**
+     * Adds monsters to a monster store at random tiles taken from a spawn index.
+     * Only the objects passed in are used, so this can run on any thread.
+     * @param store The store to add monsters to
+     * @param free The spawn tiles to take monster positions from
+     * @param count The number of monsters to add, limited by the room left in
+     * the store and by the free tiles, one of which is always left for the player
+     * @param r The random number generator used to choose tiles
+     */
+    static void addMonsters(MonsterStore store, SpawnIndex free, int count, Random r) {
+        int n = Math.min(count, Math.min(free.size() - 1, store.capacity() - store.size()));
+        for (int i = 0; i < n; i++) {
+            int cell = free.take(r);
+            store.add(free.xOf(cell), free.yOf(cell), 100);
+        }
+    }
+
+    /**
+     * Spawns a player entity in the game. The method takes a random tile from
+     * the spawns index to select a suitable location to spawn the player. The
+     * method instantiates the Entity class and assigns values for the health,
+     * position and type of Entity.
+     * @return An Entity object representing the player in the game
+     */
+    private Entity spawnPlayer() {
+        takePlayerTile();
+        return new Entity(100, playerPosition.x, playerPosition.y, Entity.EntityType.PLAYER);
+    }
+
+    /**
+     * Takes a random tile from the spawns index for the player and stores it in
+     * playerPosition. Monsters always leave a spawn tile free, so the index is
+     * only empty if the level has no floor to stand on at all.
+     * @throws IllegalStateException if there is no tile left for the player
+     */
+    private void takePlayerTile() {
+        int cell = spawns.take(rng);
+        if (cell < 0)
+            throw new IllegalStateException("no free tile for the player");
+        playerPosition.setLocation(spawns.xOf(cell), spawns.yOf(cell));
+    }
+
+    /**
+     * Moves the player in a direction given as one of the GameLoop move
+     * constants, used by the game loop and the turn processor to make moves
+     * taken from a queue. GameLoop.NONE does not move the player.
+     * @param move GameLoop.LEFT, RIGHT, UP, DOWN or NONE
+     */
+    void movePlayer(int move) {
+        switch (move) {
+            case GameLoop.LEFT: movePlayerLeft(); break;
+            case GameLoop.RIGHT: movePlayerRight(); break;
+            case GameLoop.UP: movePlayerUp(); break;
+            case GameLoop.DOWN: movePlayerDown(); break;
+            default: break;
+        }
+    }
+
+    /**
+     * Handles the movement of the player when attempting to move left in the
+     * game. This method is called by the DungeonInputHandler class when the
+     * user has pressed the left arrow key on the keyboard. The method checks
+     * whether the tile to the left of the player is empty for movement and if
+     * it is updates the player object's X and Y locations with the new position.
+     * If the tile to the left of the player is not empty the method will not
+     * update the player position, but may make other changes to the game, such
+     * as damaging a monster in the tile to the left, or breaking a wall etc.
+     */
+    public void movePlayerLeft() {
+        turnMove = GameLoop.LEFT;
+        velX = -1;
+        TileType tileType;
+        int moveLeft = velX + (player.getX());
+        int y = player.getY();
+        if(moveLeft < 0){}else{
+            tileType = getTile(moveLeft,y);
+            log.log(EventLog.DEBUG, EventLog.INPUT, "player moves into", tileType);
+            movePlayerTo(moveLeft, y);
+        }
+ 
+        
+    }
+
+    /**
+     * Handles the movement of the player when attempting to move right in the
+     * game. This method is called by the DungeonInputHandler class when the
+     * user has pressed the right arrow key on the keyboard. The method checks
+     * whether the tile to the right of the player is empty for movement and if
+     * it is updates the player object's X and Y locations with the new position.
+     * If the tile to the right of the player is not empty the method will not
+     * update the player position, but may make other changes to the game, such
+     * as damaging a monster in the tile to the right, or breaking a wall etc.
+     */
+    public void movePlayerRight() {
+        turnMove = GameLoop.RIGHT;
+        velX = 1;
+        TileType tileType;
+        int moveRight = velX + (player.getX());
+        int y = player.getY();
+        if(moveRight >= tiles.getWidth()){}else{
+            tileType = getTile(moveRight,y);
+            log.log(EventLog.DEBUG, EventLog.INPUT, "player moves into", tileType);
+            movePlayerTo(moveRight, y);
+        }
+    }
+
+    /**
+     * Handles the movement of the player when attempting to move up in the
+     * game. This method is called by the DungeonInputHandler class when the
+     * user has pressed the up arrow key on the keyboard. The method checks
+     * whether the tile above the player is empty for movement and if
+     * it is updates the player object's X and Y locations with the new position.
+     * If the tile above the player is not empty the method will not
+     * update the player position, but may make other changes to the game, such
+     * as damaging a monster in the tile above the player, or breaking a wall etc.
+     */
+    public void movePlayerUp() {
+        turnMove = GameLoop.UP;
+        velY = -1;
+        TileType tileType;
+        int moveUp = velY + (player.getY());
+        int x = player.getX();
+        if(moveUp < 0){}else{
+            tileType = getTile(x,moveUp);
+            log.log(EventLog.DEBUG, EventLog.INPUT, "player moves into", tileType);
+            movePlayerTo(x, moveUp);
+        }
+    }
+
+    /**
+     * Handles the movement of the player when attempting to move right in the
+     * game. This method is called by the DungeonInputHandler class when the
+     * user has pressed the down arrow key on the keyboard. The method checks
+     * whether the tile below the player is empty for movement and if
+     * it is updates the player object's X and Y locations with the new position.
+     * If the tile below the player is not empty the method will not
+     * update the player position, but may make other changes to the game, such
+     * as damaging a monster in the tile below the player, or breaking a wall etc.
+     */
+    public void movePlayerDown() {
+        turnMove = GameLoop.DOWN;
+        velY = 1;
+        TileType tileType;
+        int moveUp = velY + (player.getY());
+        int x = player.getX();
+        if(moveUp >= tiles.getHeight()){}else{
+            tileType = getTile(x,moveUp);
+            log.log(EventLog.DEBUG, EventLog.INPUT, "player moves into", tileType);
+            movePlayerTo(x, moveUp);
+        }
+    }
+
+    /**
+     * Moves the player into a tile next to it if the tile is passable. If a
+     * monster is standing in the tile the player attacks it instead of moving.
+     * The monster is found with a single lookup in the occupancy grid.
+     * @param x The X co-ordinate of the tile the player is moving into
+     * @param y The Y co-ordinate of the tile the player is moving into
+     */
+    private void movePlayerTo(int x, int y) {
+        int occupant = occupancy.get(x, y);
+        if (occupant >= 0) {
+            hitMonster(monsters.slotOf(occupant));
+        } else if (tiles.isPassable(x, y)) {
+            player.setPosition(x, y);
+        }
+    }
+
+    /**
+     * Reduces a monster's health in response to the player attempting to move
+     * into the same square as the monster (attacking the monster).
+     * @param m The slot in the monster store of the monster the player is attacking
+     */
+    private void hitMonster(int m) {
+        monsters.changeHealth(m, -PLAYER_DAMAGE);
+        log.log(EventLog.DEBUG, EventLog.COMBAT, "player hits monster (id, health)",
+                monsters.getId(m), monsters.getHealth(m));
+    }
+
+    /**
+     * Moves all monsters on the current level. The method brings the flow field
+     * up to date with the player's position (it is only recalculated if the
+     * player has moved) and then works in two phases. First every monster
+     * proposes a move by calling proposeMove, reading the level, occupancy grid,
+     * flow field and field of view without changing anything; this phase runs
+     * on the fork-join pool when parallel monster updates are enabled and there
+     * are enough monsters. Then moveMonster is called for each monster in slot order to
+     * apply the proposals, so the result is the same whichever way the
+     * proposals were made.
+     */
+    private void moveMonsters() {
+        if (player == null)
+            return;
+        flowField.update(tiles, player.getX(), player.getY());
+        int n = monsters.size();
+        if (proposals.length < monsters.capacity())
+            proposals = new int[monsters.capacity()];
+        if (monsterPool != null && n >= PARALLEL_MONSTER_THRESHOLD)
+            monsterPool.invoke(new ProposeTask(this, proposals, 0, n));
+        else
+            for (int m = 0; m < n; m++)
+                proposeMove(m, proposals);
+        for (int m = 0; m < n; m++)
+            moveMonster(m);
+    }
+
+    /**
+     * Works out the move a monster wants to make and stores it in an array of
+     * proposals.
+     * A monster that cannot see the player (its tile is outside the player's
+     * field of view) has not noticed the player and stays where it is. A
+     * monster next to the player proposes to attack it, otherwise it proposes
+     * the neighbouring tile that is empty and closest to the player according to
+     * the flow field, or to stay where it is. Nothing in the game is changed, so
+     * this can be called for different monsters at the same time.
+     * @param m The slot in the monster store of the monster
+     * @param out The proposals, indexed by monster slot
+     */
+    private void proposeMove(int m, int[] out) {
+        int x = monsters.getX(m);
+        int y = monsters.getY(m);
+        if (!fieldOfView.isVisible(x, y)) {
+            out[m] = STAY;
+            return;
+        }
+        int best = flowField.get(x, y);
+        if (best == 1) {
+            out[m] = ATTACK;
+            return;
+        }
+        int target = STAY;
+        for (int d = 0; d < 4; d++) {
+            int nx = x + FlowField.DX[d], ny = y + FlowField.DY[d];
+            if (tiles.inBounds(nx, ny) && occupancy.isEmpty(nx, ny) && flowField.get(nx, ny) < best) {
+                best = flowField.get(nx, ny);
+                target = tiles.index(nx, ny);
+            }
+        }
+        out[m] = target;
+    }
+
+    /**
+     * Moves a specific monster in the game by applying the move it proposed.
+     * The monster attacks the player, or moves into its chosen tile if no monster
+     * earlier in the store has already moved into it, in which case it waits.
+     * The method updates the X and Y position of the monster in the monster
+     * store to reflect its new position.
+     * @param m The slot in the monster store of the monster that needs to be moved
+     */
+    private void moveMonster(int m) {
+        int target = proposals[m];
+        if (target == ATTACK) {
+            hitPlayer();
+        } else if (target != STAY) {
+            int x = target % tiles.getWidth();
+            int y = target / tiles.getWidth();
+            if (occupancy.isEmpty(x, y))
+                monsters.setPosition(m, x, y);
+        }
+    }
+
+    /**
+     * Turns parallel monster updates on or off. When on, the proposal phase of
+     * moveMonsters is split across a fork-join pool whenever there are at least
+     * PARALLEL_MONSTER_THRESHOLD monsters; moves are still applied in order, so
+     * the game plays out exactly as it does with parallel updates off.
+     * @param parallel true to use a fork-join pool for monster updates
+     */
+    public void setParallelMonsters(boolean parallel) {
+        if (parallel && monsterPool == null) {
+            monsterPool = new ForkJoinPool();
+        } else if (!parallel && monsterPool != null) {
+            monsterPool.shutdown();
+            monsterPool = null;
+        }
+    }
+
+    /**
+     * A fork-join task that calls proposeMove for a range of monster slots,
+     * splitting the range in half until it is small enough to process directly.
+     * It is a static class so that it does not hold a hidden reference to the
+     * engine; the engine and the proposals array are passed in instead.
+     */
+    private static class ProposeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient GameEngine engine;
+        private final int[] proposals;
+        private final int from;
+        private final int to;
+
+        /**
+         * Creates a task for the monsters in slots from (inclusive) to to (exclusive)
+         * @param engine The engine whose monsters propose moves
+         * @param proposals The array the moves are stored in, indexed by slot
+         * @param from The first slot
+         * @param to One past the last slot
+         */
+        ProposeTask(GameEngine engine, int[] proposals, int from, int to) {
+            this.engine = engine;
+            this.proposals = proposals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PROPOSE_BATCH) {
+                for (int m = from; m < to; m++)
+                    engine.proposeMove(m, proposals);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ProposeTask(engine, proposals, from, mid),
+                        new ProposeTask(engine, proposals, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Reduces the health of the player when hit by a monster - a monster next
+     * to the player can attack it instead of moving and should call this method
+     * to reduce the player's health
+     */
+    private void hitPlayer() {
+        player.changeHealth(-MONSTER_DAMAGE);
+        log.log(EventLog.DEBUG, EventLog.COMBAT, "monster hits player (health, damage)",
+                player.getHealth(), MONSTER_DAMAGE);
+    }
+
+    /**
+     * Processes the monster store to find any monster with 0 or less health and
+     * removes it. The last monster in the store takes the place of each removed
+     * monster, so live monsters stay packed together.
+     */
+    private void cleanDeadMonsters() {
+        monsters.removeDead();
+    }
+
+    /**
+     * Called in response to the player moving into a Stair tile in the game.
+     * The method increases the dungeon depth and switches to the next level,
+     * which has normally already been built (tiles, spawn index and monsters)
+     * on the background level worker. If the worker has not finished, the level
+     * is built here from the same seed instead. Finally it places the player in
+     * the new level by calling the placePlayer() method and starts building the
+     * level after. Note that a new player object should not be created here
+     * unless the health of the player should be reset.
+     */
+    private void descendLevel() {
+        Level next = null;
+        if (nextLevel != null && nextLevel.isDone() && !nextLevel.isCancelled()) {
+            try {
+                next = nextLevel.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                next = null;        //built again below
+            }
+        }
+        if (next == null) {         //worker has not finished, build it here instead
+            if (nextLevel != null)
+                nextLevel.cancel(false);
+            next = buildLevel(seed, depth + 1, startMonsters, levelGenerator);
+        }
+        depth = next.depth;
+        tiles = next.tiles;
+        spawns = next.spawns;
+        monsters = next.monsters;
+        occupancy.clear();
+        monsters.setOccupancy(occupancy);
+        placePlayer();
+        player.savePosition();      //do not slide in from the old level
+        prepareNextLevel();
+        updateFieldOfView();
+        log.log(EventLog.INFO, EventLog.LEVEL, "descended (depth, monsters)", depth, monsters.size());
+    }
+
+    /**
+     * Starts building the level below the current one on the background level
+     * worker, so that descendLevel can simply swap it in. The level only depends
+     * on the seed and depth, so it is the same whether it is finished in the
+     * background or has to be built by descendLevel, which it is if the
+     * worker has been shut down.
+     */
+    private void prepareNextLevel() {
+        if (nextLevel != null)
+            nextLevel.cancel(false);
+        final long gameSeed = seed;
+        final int nextDepth = depth + 1;
+        final int count = startMonsters;
+        final LevelGenerator generator = levelGenerator;
+        try {
+            nextLevel = levelWorker.submit(() -> buildLevel(gameSeed, nextDepth, count, generator));
+        } catch (RejectedExecutionException e) {
+            nextLevel = null;       //the worker has been shut down, descendLevel builds it
+        }
+    }
+
+    /**
+     * Builds a complete level: its tiles, monsters and the spawn tiles left
+     * over for the player. The tiles come from the level cache and the monsters
+     * are placed with a generator seeded from the level, so the same seed and
+     * depth always give the same level. Nothing else in the engine is changed,
+     * so this can run on the background level worker.
+     * @param seed The seed of the game
+     * @param depth The depth of the level
+     * @param monsterCount The number of monsters to spawn
+     * @param generator The generator that lays out the walls and floors
+     * @return the new Level
+     */
+    Level buildLevel(long seed, int depth, int monsterCount, LevelGenerator generator) {
+        Random r = new Random(~levelSeed(seed, depth));
+        TileGrid grid = levels.get(seed, depth, generator);
+        SpawnIndex free = new SpawnIndex(DUNGEON_WIDTH, DUNGEON_HEIGHT);
+        free.fill(grid);
+        MonsterStore store = new MonsterStore(Math.max(MAX_MONSTERS, monsterCount));
+        addMonsters(store, free, monsterCount, r);
+        return new Level(depth, grid, free, store);
+    }
+
+    /**
+     * Places the player in a dungeon level by choosing a spawn location from the
+     * spawns index, removing the spawn position as it is used. The method sets
+     * the players position in the level by calling its setPosition method with the
+     * x and y values of the tile taken from the spawns index.
+     */
+    private void placePlayer() {
+        takePlayerTile();
+        player.setPosition(playerPosition.x, playerPosition.y);
+    }
+
+    /**
+     * Performs a single turn of the game when the user presses a key on the
+     * keyboard. The method cleans dead monsters, works out what the player can
+     * see, moves any monsters still alive
+     * and then checks if the player is dead, exiting the game or resetting it
+     * after an appropriate output to the user is given. It checks if the player
+     * moved into a stair tile and calls the descendLevel method if it does.
+     * Finally it requests the GUI to redraw the game level by passing it the
+     * tiles, player and monsters for the current level. A turn that restarts
+     * the game goes through every phase too, so its time is recorded with the
+     * others, with the restart counted in the stairs phase like a new level.
+     */
+    public void doTurn() {
+        long start = metrics.start();
+        if (journal != null)
+            journal.record(turnMove);
+        turnMove = GameLoop.NONE;
+        cleanDeadMonsters();
+        long t = metrics.lap(Phase.CLEAN_DEAD_MONSTERS, start);
+        if (world != null && player != null) {
+            scrollWindow();
+            t = metrics.lap(Phase.SCROLL_WINDOW, t);
+        }
+        updateFieldOfView();
+        t = metrics.lap(Phase.FIELD_OF_VIEW, t);
+        moveMonsters();
+        t = metrics.lap(Phase.MOVE_MONSTERS, t);
+        if (player != null) {       //checks a player object exists
+            if (player.getHealth() < 1) {
+                if (exitOnDeath)
+                    System.exit(0); //exits the game when player is dead
+                if (world != null)
+                    startChunkedGame(world, startMonsters);
+                else
+                    startGame(startMonsters);
+            } else if (tiles.get(player.getX(), player.getY()) == TileType.STAIRS) {
+                descendLevel();     //moves to next level if the player is on Stairs
+            }
+        }
+        t = metrics.lap(Phase.STAIRS_CHECK, t);
+        gui.updateDisplay(tiles, fieldOfView, player, monsters);     //updates GUI
+        metrics.stop(Phase.UPDATE_DISPLAY, t);
+        metrics.stop(Phase.TURN, start);
+    }
+
+    /**
+     * The default file used by the quick save and quick load keys
+     */
+    public static final Path QUICK_SAVE = Paths.get("dungeon.sav");
+
+    /**
+     * Saves the current game to a file with SaveFile
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void saveGame(Path file) throws IOException {
+        SaveFile.save(this, file);
+        log.log(EventLog.INFO, EventLog.SYSTEM, "saved game", file);
+    }
+
+    /**
+     * Replaces the current game with one saved by saveGame and updates the display
+     * @param file The file to read
+     * @throws IOException if the file cannot be read or is not a valid save
+     */
+    public void loadGame(Path file) throws IOException {
+        SaveFile.load(this, file);
+        log.log(EventLog.INFO, EventLog.SYSTEM, "loaded game", file);
+        updateFieldOfView();
+        gui.updateDisplay(tiles, fieldOfView, player, monsters);
+    }
+
+    /**
+     * Quick saves or quick loads the game to the quick save file if a command is
+     * GameLoop.SAVE or GameLoop.LOAD. Must be called on the thread doing turns.
+     * A file that cannot be written or read is reported to the event log and
+     * the game carries on.
+     * @param command A command taken from the input queue or game loop
+     * @return true if the command was a save or load, false if it is a move
+     */
+    boolean saveOrLoad(int command) {
+        if (command != GameLoop.SAVE && command != GameLoop.LOAD)
+            return false;
+        if (journal != null)
+            journal.record(command);
+        try {
+            if (command == GameLoop.SAVE)
+                saveGame(quickSave);
+            else
+                loadGame(quickSave);
+        } catch (IOException e) {
+            log.log(EventLog.ERROR, EventLog.SYSTEM, "quick save or load failed", e);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes writeState will write for the current game
+     * @return the size of the game state in bytes
+     */
+    int stateSize() {
+        int size = 28 + 8 + tiles.getWidth() * tiles.getHeight() + 16 + monsters.savedSize();
+        if (world != null)
+            size += world.savedSize() + 8;
+        return size;
+    }
+
+    /**
+     * Writes the state of the game to a buffer: the seeds and depth, the
+     * chunked level if there is one, the tiles, the player and the monsters.
+     * The engine's random number generator cannot be read, so it is reseeded
+     * from itself and the new seed is saved, so the game plays on the same way
+     * whether or not it was saved and loaded.
+     * @param buffer The buffer to write to, which must have stateSize() bytes left
+     */
+    void writeState(ByteBuffer buffer) {
+        long rngSeed = rng.nextLong();
+        rng.setSeed(rngSeed);
+        buffer.putLong(seed).putLong(rngSeed).putInt(depth).putInt(startMonsters);
+        buffer.putInt(world != null ? 1 : 0);
+        if (world != null) {
+            world.writeTo(buffer);
+            buffer.putInt(originX).putInt(originY);
+        }
+        buffer.putInt(tiles.getWidth()).putInt(tiles.getHeight());
+        tiles.writeCells(buffer);
+        buffer.putInt(player.getX()).putInt(player.getY())
+                .putInt(player.getHealth()).putInt(player.getMaxHealth());
+        monsters.writeTo(buffer);
+    }
+
+    /**
+     * Replaces the current game with a state written by writeState. Everything
+     * is read into new objects first, so a damaged state leaves the current game
+     * unchanged.
+     * @param buffer The buffer to read from
+     * @param version The save file format version the state was written with
+     * @throws IllegalArgumentException if the state holds impossible values
+     */
+    void readState(ByteBuffer buffer, int version) {
+        long newSeed = buffer.getLong();
+        long rngSeed = buffer.getLong();
+        int newDepth = buffer.getInt();
+        int newStartMonsters = buffer.getInt();
+        ChunkedLevel newWorld = null;
+        int newOriginX = 0, newOriginY = 0;
+        if (buffer.getInt() == 1) {
+            newWorld = ChunkedLevel.readFrom(buffer);
+            newOriginX = buffer.getInt();
+            newOriginY = buffer.getInt();
+        }
+        int width = buffer.getInt(), height = buffer.getInt();
+        if (width <= 0 || height <= 0 || (long) width * height > buffer.remaining())
+            throw new IllegalArgumentException("bad level size " + width + "x" + height);
+        TileGrid grid = new TileGrid(width, height);
+        grid.readCells(buffer);
+        int px = buffer.getInt(), py = buffer.getInt();
+        int health = buffer.getInt(), maxHealth = buffer.getInt();
+        MonsterStore store = MonsterStore.readFrom(buffer, MAX_MONSTERS);
+        if (!grid.inBounds(px, py))
+            throw new IllegalArgumentException("player outside level");
+        for (int m = 0; m < store.size(); m++)
+            if (!grid.inBounds(store.getX(m), store.getY(m)))
+                throw new IllegalArgumentException("monster outside level");
+
+        if (nextLevel != null) {
+            nextLevel.cancel(false);
+            nextLevel = null;
+        }
+        seed = newSeed;
+        rng.setSeed(rngSeed);
+        depth = newDepth;
+        startMonsters = newStartMonsters;
+        world = newWorld;
+        originX = newOriginX;
+        originY = newOriginY;
+        sizeLevel(width, height);
+        tiles = grid;
+        monsters = store;
+        occupancy.clear();
+        monsters.setOccupancy(occupancy);
+        player = new Entity(maxHealth, px, py, Entity.EntityType.PLAYER);
+        player.changeHealth(health - maxHealth);
+        player.setOccupancy(occupancy);
+        spawns.fill(tiles);
+        spawns.remove(px, py);
+        for (int m = 0; m < monsters.size(); m++)
+            spawns.remove(monsters.getX(m), monsters.getY(m));
+        if (world == null)
+            prepareNextLevel();
+    }
+
+    /**
+     * Sets the seed of the game. Levels are generated from the seed and their
+     * depth, and the engine's random number generator is reseeded, so a game
+     * started after this call plays out the same way every time for the same
+     * seed and moves.
+     * @param seed The new seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        rng.setSeed(seed);
+    }
+
+    /**
+     * Sets where the engine records diagnostic events, replacing the shared
+     * default log
+     * @param log The event log to use
+     */
+    public void setEventLog(EventLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Records the command made on every turn from now on in a journal, so the
+     * game can be replayed with InputJournal.Session.replay. The journal must
+     * have been created with the seed and monster count of the next game
+     * started, and recording should begin just before that game is started.
+     * @param journal The journal to append to, or null to stop recording
+     */
+    public void setJournal(InputJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the file used by the quick save and quick load commands
+     * @param file The quick save file, QUICK_SAVE by default
+     */
+    public void setQuickSaveFile(Path file) {
+        quickSave = file;
+    }
+
+    /**
+     * Returns a checksum of the current game: the level, the player and the
+     * monsters. Two runs that reach the same state have the same checksum, so
+     * a replay can be checked against the game it was recorded from.
+     * @return the checksum
+     */
+    long stateChecksum() {
+        ByteBuffer state = ByteBuffer.allocate(tiles.getWidth() * tiles.getHeight() + monsters.savedSize());
+        tiles.writeCells(state);
+        monsters.writeTo(state);
+        state.flip();
+        long sum = state.hashCode();
+        sum = sum * 31 + depth;
+        sum = sum * 31 + player.getX();
+        sum = sum * 31 + player.getY();
+        return sum * 31 + player.getHealth();
+    }
+
+    /**
+     * Chooses the algorithm that lays out the walls and floors of levels
+     * generated from now on. The current level is kept; call startGame to play
+     * a game made with the new generator. A CaveGenerator is used by default.
+     * @param generator The level generator to use
+     */
+    public void setLevelGenerator(LevelGenerator generator) {
+        levelGenerator = generator;
+    }
+
+    /**
+     * Returns the seed of the game
+     * @return the seed levels are generated from
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns how deep in the dungeon the player is
+     * @return the depth of the current level, starting at 1
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the timings of the phases of each turn, which a GUI can draw and
+     * which can be registered for JMX
+     * @return the turn metrics of this engine
+     */
+    public TurnMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the cache of generated levels, for reporting its hit and miss counts
+     * @return the level cache
+     */
+    LevelCache getLevelCache() {
+        return levels;
+    }
+
+    /**
+     * Chooses what happens when the player dies: the program exits (the default,
+     * used by the GUI) or a new game is started (used when running headless).
+     * @param exit true to exit the program, false to restart the game
+     */
+    public void setExitOnDeath(boolean exit) {
+        exitOnDeath = exit;
+    }
+
+    /**
+     * Starts a game. This method generates a level, finds spawn positions in
+     * the level, spawns monsters and the player and then requests the GUI to
+     * update the level on screen using the information on tiles, player and
+     * monsters.
+     */
+    public void startGame() {
+        //tiles = generateLevel();
+        startGame(1);
+    }
+
+    /**
+     * Starts a game in the same way as startGame() but with a fixed number of
+     * monsters, used by the benchmarks to measure turns at different monster counts.
+     * @param monsterCount The number of monsters to spawn on the level
+     */
+    void startGame(int monsterCount) {
+        startMonsters = monsterCount;
+        world = null;
+        sizeLevel(DUNGEON_WIDTH, DUNGEON_HEIGHT);
+        depth = 1;
+        tiles = generateLevel();
+        spawns = getSpawns();
+        if (monsterCount > monsters.capacity())
+            monsters = new MonsterStore(monsterCount);
+        occupancy.clear();
+        monsters.setOccupancy(occupancy);
+        monsters = spawnMonsters(monsterCount);
+        player = spawnPlayer();
+        player.setOccupancy(occupancy);
+        prepareNextLevel();
+        updateFieldOfView();
+        gui.updateDisplay(tiles, fieldOfView, player, monsters);
+    }
+
+    /**
+     * Starts a game on a chunked level. Only a window of CHUNK_WINDOW_SIZE tiles
+     * around the player is copied out of the chunked level and simulated; the
+     * window is moved to follow the player by scrollWindow. The game starts in
+     * the middle of the level with monsters spawned inside the first window.
+     * @param level The chunked level to play
+     * @param monsterCount The number of monsters to spawn
+     */
+    public void startChunkedGame(ChunkedLevel level, int monsterCount) {
+        startMonsters = monsterCount;
+        world = level;
+        if (nextLevel != null) {    //chunked levels have no stairs
+            nextLevel.cancel(false);
+            nextLevel = null;
+        }
+        sizeLevel(CHUNK_WINDOW_SIZE, CHUNK_WINDOW_SIZE);
+        originX = (level.getWidth() - CHUNK_WINDOW_SIZE) / 2;
+        originY = (level.getHeight() - CHUNK_WINDOW_SIZE) / 2;
+        level.copyWindow(tiles, originX, originY);
+        spawns = getSpawns();
+        if (monsterCount > monsters.capacity())
+            monsters = new MonsterStore(monsterCount);
+        occupancy.clear();
+        monsters.setOccupancy(occupancy);
+        monsters = spawnMonsters(monsterCount);
+        player = spawnPlayer();
+        player.setOccupancy(occupancy);
+        fieldOfView.reset();        //the window grid is reused for the new game
+        updateFieldOfView();
+        gui.updateDisplay(tiles, fieldOfView, player, monsters);
+    }
+
+    /**
+     * Returns the chunked level being played
+     * @return the ChunkedLevel, or null when playing a normal level
+     */
+    public ChunkedLevel getChunkedLevel() {
+        return world;
+    }
+
+    /**
+     * Makes sure the tiles, spawn index, occupancy grid and flow field are the
+     * given size, creating new ones only if the size has changed.
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     */
+    private void sizeLevel(int width, int height) {
+        if (tiles == null || tiles.getWidth() != width || tiles.getHeight() != height) {
+            tiles = new TileGrid(width, height);
+            spawns = new SpawnIndex(width, height);
+            occupancy = new OccupancyGrid(width, height);
+            flowField = new FlowField(width, height);
+            fieldOfView = new FieldOfView(width, height, FOV_RADIUS);
+        }
+    }
+
+    /**
+     * Moves the simulated window of a chunked level when the player gets within
+     * CHUNK_WINDOW_MARGIN tiles of its edge. The window is re-centred on the player,
+     * tiles are copied from the chunked level (generating chunks as needed), the
+     * player and monsters are shifted to their new window positions and monsters
+     * that fall outside the window are removed. Chunks far from the player are
+     * then evicted from the chunked level.
+     */
+    private void scrollWindow() {
+        int px = player.getX(), py = player.getY();
+        int w = tiles.getWidth(), h = tiles.getHeight();
+        if (px >= CHUNK_WINDOW_MARGIN && py >= CHUNK_WINDOW_MARGIN
+                && px < w - CHUNK_WINDOW_MARGIN && py < h - CHUNK_WINDOW_MARGIN)
+            return;
+        int dx = w / 2 - px, dy = h / 2 - py;
+        originX -= dx;
+        originY -= dy;
+        world.copyWindow(tiles, originX, originY);
+        monsters.setOccupancy(null);
+        player.setOccupancy(null);
+        for (int m = monsters.size() - 1; m >= 0; m--) {
+            int mx = monsters.getX(m) + dx, my = monsters.getY(m) + dy;
+            if (tiles.inBounds(mx, my))
+                monsters.setPosition(m, mx, my);
+            else
+                monsters.remove(m);
+        }
+        player.setPosition(px + dx, py + dy);
+        fieldOfView.shift(dx, dy);
+        occupancy.clear();
+        monsters.setOccupancy(occupancy);
+        player.setOccupancy(occupancy);
+        world.evictFarFrom(originX + w / 2, originY + h / 2,
+                CHUNK_WINDOW_SIZE / ChunkedLevel.CHUNK_SIZE + 1);
+        savePositions();            //previous positions were in the old window
+    }
+
+    /**
+     * Brings the field of view up to date with the player's position. It is
+     * only recalculated if the player has moved or a tile has changed.
+     */
+    private void updateFieldOfView() {
+        if (player != null)
+            fieldOfView.update(tiles, player.getX(), player.getY());
+    }
+
+    /**
+     * Returns the tiles the player can see and has seen on the current level
+     * @return the field of view
+     */
+    FieldOfView getFieldOfView() {
+        return fieldOfView;
+    }
+
+    /**
+     * Remembers where the player and every monster are at the start of a
+     * real-time tick, so the renderer can draw them moving smoothly between
+     * their old and new tiles. Called by GameLoop before each tick.
+     */
+    void savePositions() {
+        monsters.savePositions();
+        if (player != null)
+            player.savePosition();
+    }
+}
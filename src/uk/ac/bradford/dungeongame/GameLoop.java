@@ -0,0 +1,235 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The GameLoop class runs the game in real time instead of one turn per key
+ * press. A loop thread advances the engine in fixed ticks of game time measured
+ * by a Clock, so monsters act on the clock whether or not the player presses a
+ * key. Key presses only choose the player's next move, which is made at the
+ * start of the following tick.
+ * <p>
+ * If the loop falls behind (for example after the window was dragged) it runs at
+ * most MAX_CATCH_UP_TICKS ticks in a row and skips the rest, rather than
+ * spending ever longer catching up. Between ticks the loop publishes how far
+ * game time has moved towards the next tick, which the renderer uses to draw
+ * entities part way between their old and new tiles.
+ * @author prtrundl
+ */
+public class GameLoop {
+
+    /**
+     * Moves that can be queued for the player
+     */
+    public static final int NONE = -1, LEFT = 0, RIGHT = 1, UP = 2, DOWN = 3;
+
+    /**
+     * Commands to quick save the game to GameEngine.QUICK_SAVE and to load it again
+     */
+    public static final int SAVE = 4, LOAD = 5;
+
+    /**
+     * The default number of ticks per second of game time
+     */
+    public static final int DEFAULT_TICK_RATE = 4;
+
+    /**
+     * The most ticks run back to back before the loop gives up catching up
+     */
+    public static final int MAX_CATCH_UP_TICKS = 5;
+
+    /**
+     * The longest the loop thread sleeps between checks of the clock
+     */
+    private static final long MAX_SLEEP_NANOS = 20000000;
+
+    private final GameEngine engine;
+    private final Clock clock;
+
+    /**
+     * The length of a tick in seconds of game time
+     */
+    private final double tickSeconds;
+
+    /**
+     * Game time that has passed but not yet been simulated, in seconds
+     */
+    private double accumulator;
+
+    /**
+     * The game time waiting in the accumulator when the loop last went to sleep,
+     * and the System.nanoTime at that moment, so the renderer can work out how
+     * far the game has moved towards the next tick at any time
+     */
+    private volatile double waiting;
+    private volatile long waitingSince;
+
+    /**
+     * The move the player makes at the start of the next tick, or NONE
+     */
+    private final AtomicInteger pendingMove = new AtomicInteger(NONE);
+
+    /**
+     * Tick statistics: ticks run, ticks skipped by the catch-up limit, ticks that
+     * took longer than a tick of real time, and the longest tick in nanoseconds
+     */
+    private volatile long ticks, skippedTicks, overrunTicks, maxTickNanos;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Creates a loop for an engine. The loop does nothing until start is called.
+     * @param engine The engine to advance
+     * @param clock The clock that measures game time
+     * @param ticksPerSecond The number of ticks per second of game time
+     */
+    public GameLoop(GameEngine engine, Clock clock, int ticksPerSecond) {
+        this.engine = engine;
+        this.clock = clock;
+        this.tickSeconds = 1.0 / Math.max(1, ticksPerSecond);
+    }
+
+    /**
+     * Starts the loop thread
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        clock.update();             //do not count time spent before starting
+        thread = new Thread(this::run, "dungeon-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop thread and waits for it to finish its current tick
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Chooses the player's move for the next tick, replacing any move already
+     * chosen. Can be called from any thread, such as the input handler.
+     * @param move One of LEFT, RIGHT, UP or DOWN, or SAVE or LOAD
+     */
+    public void queueMove(int move) {
+        pendingMove.set(move);
+    }
+
+    /**
+     * Returns the clock that measures game time, which can be paused or sped up
+     * @return the clock
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns how far game time has moved from the last tick towards the next
+     * @return a value from 0 (just ticked) to 1 (about to tick)
+     */
+    public float getAlpha() {
+        double pending = waiting;
+        if (!clock.isPaused())
+            pending += (System.nanoTime() - waitingSince) / 1e9 * clock.getMultiplier();
+        return (float) Math.min(1, pending / tickSeconds);
+    }
+
+    /**
+     * Returns the number of ticks run
+     * @return the number of ticks
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the number of ticks skipped because the loop fell too far behind
+     * @return the number of skipped ticks
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /**
+     * Returns the number of ticks that took longer than a tick of real time
+     * @return the number of overrunning ticks
+     */
+    public long getOverrunTicks() {
+        return overrunTicks;
+    }
+
+    /**
+     * Returns the longest time taken by a tick
+     * @return the longest tick in nanoseconds
+     */
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+
+    /**
+     * Body of the loop thread: adds the game time passed to the accumulator,
+     * runs a tick for each whole tick of time up to the catch-up limit, then
+     * sleeps until the next tick is due.
+     */
+    private void run() {
+        long budget = (long) (tickSeconds * 1e9);
+        while (running) {
+            accumulator += clock.update();
+            int steps = 0;
+            while (accumulator >= tickSeconds && steps < MAX_CATCH_UP_TICKS) {
+                long start = System.nanoTime();
+                tick();
+                long taken = System.nanoTime() - start;
+                if (taken > maxTickNanos)
+                    maxTickNanos = taken;
+                if (taken > budget)
+                    overrunTicks++;
+                accumulator -= tickSeconds;
+                steps++;
+            }
+            if (accumulator >= tickSeconds) {   //too far behind, drop the rest
+                long behind = (long) (accumulator / tickSeconds);
+                skippedTicks += behind;
+                accumulator -= behind * tickSeconds;
+            }
+            waiting = accumulator;
+            waitingSince = System.nanoTime();
+            float multiplier = clock.getMultiplier();
+            long wait = MAX_SLEEP_NANOS;    //wake up regularly to notice pauses and speed changes
+            if (!clock.isPaused() && multiplier > 0)
+                wait = Math.min(wait, (long) ((tickSeconds - accumulator) / multiplier * 1e9));
+            LockSupport.parkNanos(Math.max(wait, 100000));
+        }
+    }
+
+    /**
+     * Runs a single tick: remembers where everything was for interpolation, makes
+     * the player's queued move, then lets the engine do a turn.
+     */
+    private void tick() {
+        engine.savePositions();
+        int command = pendingMove.getAndSet(NONE);
+        if (!engine.saveOrLoad(command))
+            engine.movePlayer(command);
+        engine.doTurn();
+        ticks++;
+    }
+}
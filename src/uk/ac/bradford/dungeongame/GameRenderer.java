@@ -0,0 +1,24 @@
+package uk.ac.bradford.dungeongame;
+
+/**
+ * The GameRenderer interface is implemented by any class that a GameEngine can
+ * pass level (tiles) and entity information to after each turn. The GameGUI class
+ * implements this interface to draw the game to the screen, and the HeadlessRenderer
+ * class implements it to run the engine without a window.
+ * @author prtrundl
+ */
+public interface GameRenderer {
+
+    /**
+     * Called by the GameEngine whenever the state of the game has changed and
+     * should be displayed, usually at the end of a turn.
+     * @param tiles A TileGrid representing the current dungeon level
+     * @param view The tiles the player can see and has seen, or null to show
+     * every tile and monster
+     * @param player An Entity object with the type EntityType.PLAYER, or null if
+     * no player exists
+     * @param monsters The MonsterStore holding the monsters on the level, or null
+     * if there are no monsters
+     */
+    void updateDisplay(TileGrid tiles, FieldOfView view, Entity player, MonsterStore monsters);
+}
@@ -0,0 +1,603 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The GameServer class hosts many independent games in one program. Each
+ * client connects over TCP on the local machine and gets its own GameEngine,
+ * which it plays by sending one command per line:
+ * <ul>
+ * <li>left, right, up, down or wait - does one turn and replies with a line
+ * such as "ok turn 12 player 3 4 health 90 depth 1 monsters 2"</li>
+ * <li>state - replies with one line per row of the level, using # for walls,
+ * . for floors, &gt; for stairs, c for chests, @ for the player, m for the
+ * monsters the player can see and a space for tiles not yet seen, then "end"</li>
+ * <li>new, or new followed by a seed - starts a new game</li>
+ * <li>quit - replies "bye" and closes the connection</li>
+ * </ul>
+ * Anything else gets a line starting "error". On connecting a client is sent
+ * "welcome" and the seed of its game, or "busy" if the server already has
+ * its maximum number of sessions.
+ * <p>
+ * Every session is run by its own thread, created with a small stack because
+ * it only reads a line, does a turn and writes a reply. The memory of a
+ * session is bounded: the level is always DUNGEON_WIDTH by DUNGEON_HEIGHT,
+ * lines longer than MAX_LINE_LENGTH close the session, and the engine's turn
+ * metrics are turned off. A session that sends nothing for the idle timeout
+ * is sent "idle" and evicted, so abandoned connections do not hold a session
+ * forever. The next level down of every game is built in the background by a
+ * small pool of level workers belonging to the server, and a session that
+ * closes cancels the level being built for it.
+ * @author prtrundl
+ */
+public class GameServer {
+
+    /**
+     * The port the server listens on unless another is given
+     */
+    public static final int DEFAULT_PORT = 4000;
+
+    /**
+     * The default largest number of sessions open at once
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    /**
+     * The default time a session may send nothing before it is evicted
+     */
+    public static final int DEFAULT_IDLE_MILLIS = 60000;
+
+    /**
+     * The longest command line accepted, not counting the line ending
+     */
+    public static final int MAX_LINE_LENGTH = 64;
+
+    /**
+     * The number of connections the operating system queues while the server
+     * is busy accepting others
+     */
+    private static final int BACKLOG = 4096;
+
+    /**
+     * The stack size requested for session threads
+     */
+    private static final long SESSION_STACK_SIZE = 256 * 1024;
+
+    /**
+     * The number of threads building levels for the sessions
+     */
+    private static final int LEVEL_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The shortest and longest time the acceptor waits after accepting a
+     * connection fails, so that a lasting failure such as running out of file
+     * handles does not keep it spinning. The wait doubles after each failure
+     * in a row.
+     */
+    private static final long MIN_ACCEPT_BACKOFF_NANOS = 1000000;
+    private static final long MAX_ACCEPT_BACKOFF_NANOS = 1000000000;
+
+    private final int port;
+    private final int maxSessions;
+    private final int idleMillis;
+
+    private ServerSocket server;
+    private Thread acceptor;
+    private ExecutorService workers;
+    private ExecutorService levelWorkers;
+    private volatile boolean running;
+
+    /**
+     * The sessions currently open, so they can be closed when the server stops
+     */
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+
+    /**
+     * Seeds for the first game of each session, counted up from the time the
+     * server was created
+     */
+    private final AtomicInteger nextSession = new AtomicInteger();
+    private final long baseSeed = System.currentTimeMillis();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder acceptFailures = new LongAdder();
+
+    /**
+     * Turn times of the sessions that have closed
+     */
+    private final LatencyHistogram closedLatency = new LatencyHistogram();
+
+    /**
+     * Creates a server on the default port with the default limits
+     */
+    public GameServer() {
+        this(DEFAULT_PORT, DEFAULT_MAX_SESSIONS, DEFAULT_IDLE_MILLIS);
+    }
+
+    /**
+     * Creates a server. It does not accept connections until it is started.
+     * @param port The port to listen on, or 0 for any free port
+     * @param maxSessions The largest number of sessions open at once
+     * @param idleMillis How long a session may send nothing before it is evicted
+     */
+    public GameServer(int port, int maxSessions, int idleMillis) {
+        this.port = port;
+        this.maxSessions = maxSessions;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Runs a server until the program is stopped.
+     * @param args Optional port (default DEFAULT_PORT), maximum number of
+     * sessions (default DEFAULT_MAX_SESSIONS) and idle timeout in milliseconds
+     * (default DEFAULT_IDLE_MILLIS)
+     * @throws IOException if the port cannot be listened on
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxSessions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_SESSIONS;
+        int idleMillis = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_IDLE_MILLIS;
+        GameServer server = new GameServer(port, maxSessions, idleMillis);
+        server.start();
+        System.out.println("dungeon server listening on port " + server.getPort());
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts listening for connections on the local machine
+     * @throws IOException if the port cannot be listened on
+     */
+    public synchronized void start() throws IOException {
+        if (running)
+            return;
+        server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(null, r, "dungeon-session-" + threads.incrementAndGet(), SESSION_STACK_SIZE);
+            t.setDaemon(true);
+            return t;
+        };
+        workers = Executors.newCachedThreadPool(factory);
+        AtomicInteger levelThreads = new AtomicInteger();
+        levelWorkers = Executors.newFixedThreadPool(LEVEL_THREADS, r -> {
+            Thread t = new Thread(r, "dungeon-server-level-" + levelThreads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        acceptor = new Thread(this::accept, "dungeon-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections and closes every open session
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            EventLog.getDefault().log(EventLog.WARN, EventLog.SYSTEM, "server socket close failed", e);
+        }
+        for (Session s : sessions)
+            s.close();
+        workers.shutdown();
+        levelWorkers.shutdown();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port the server is listening on, which is useful when it was
+     * created with port 0
+     * @return the port, or -1 if the server has not been started
+     */
+    public int getPort() {
+        ServerSocket s = server;
+        return s == null ? -1 : s.getLocalPort();
+    }
+
+    /**
+     * Returns the number of sessions currently open
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Returns the number of sessions opened since the server started
+     * @return the number of sessions
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * Returns the number of connections turned away because the server was full
+     * @return the number of connections
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of sessions closed for sending nothing for too long
+     * @return the number of sessions
+     */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Returns the number of turns done by all sessions
+     * @return the number of turns
+     */
+    public long getTurns() {
+        return turns.sum();
+    }
+
+    /**
+     * Returns the number of times accepting a connection has failed
+     * @return the number of failures
+     */
+    public long getAcceptFailures() {
+        return acceptFailures.sum();
+    }
+
+    /**
+     * Returns the time taken by the turns of every session, open and closed.
+     * Each open session is read under the lock it records its turns with, so
+     * the result is a consistent copy of every turn finished when the session
+     * was read.
+     * @return a new histogram of turn times in nanoseconds
+     */
+    public LatencyHistogram getTurnLatency() {
+        LatencyHistogram all = new LatencyHistogram();
+        synchronized (closedLatency) {
+            all.add(closedLatency);
+        }
+        for (Session s : sessions) {
+            synchronized (s.latency) {
+                all.add(s.latency);
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Accepts connections until the server is stopped, starting a session for
+     * each or turning it away if the server is full. After a failure the
+     * acceptor waits before trying again, longer for each failure in a row,
+     * and only the first failure in a row is logged; the rest are counted.
+     */
+    private void accept() {
+        long backoff = 0;
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!running)
+                    break;
+                acceptFailures.increment();
+                if (backoff == 0)
+                    EventLog.getDefault().log(EventLog.ERROR, EventLog.SYSTEM, "server accept failed", e);
+                backoff = Math.min(MAX_ACCEPT_BACKOFF_NANOS, Math.max(MIN_ACCEPT_BACKOFF_NANOS, backoff * 2));
+                LockSupport.parkNanos(backoff);
+                continue;
+            }
+            backoff = 0;
+            if (sessionCount.incrementAndGet() > maxSessions) {
+                sessionCount.decrementAndGet();
+                rejected.increment();
+                try (Socket s = socket) {
+                    s.getOutputStream().write("busy\n".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    //the client has gone already
+                }
+                continue;
+            }
+            opened.increment();
+            workers.execute(new Session(socket, baseSeed + nextSession.incrementAndGet()));
+        }
+    }
+
+    /**
+     * One client's game. The session's thread is the only one that touches its
+     * engine, so the engine needs no locking.
+     */
+    private class Session implements Runnable, GameRenderer {
+
+        private final Socket socket;
+        private final long seed;
+
+        /**
+         * The session's turn times, recorded and read while holding its lock
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private GameEngine engine;
+        private InputStream in;
+        private OutputStream out;
+
+        /**
+         * The command being read and the reply being written, reused for
+         * every line
+         */
+        private final byte[] line = new byte[MAX_LINE_LENGTH];
+        private final StringBuilder reply = new StringBuilder(
+                (GameEngine.DUNGEON_WIDTH + 1) * GameEngine.DUNGEON_HEIGHT + 16);
+        private long turn;
+
+        /**
+         * What the engine last asked to be displayed
+         */
+        private TileGrid tiles;
+        private FieldOfView view;
+        private Entity player;
+        private MonsterStore monsters;
+
+        /**
+         * Creates a session for a connection
+         * @param socket The client's connection
+         * @param seed The seed of the session's first game
+         */
+        Session(Socket socket, long seed) {
+            this.socket = socket;
+            this.seed = seed;
+        }
+
+        @Override
+        public void updateDisplay(TileGrid tiles, FieldOfView view, Entity player, MonsterStore monsters) {
+            this.tiles = tiles;
+            this.view = view;
+            this.player = player;
+            this.monsters = monsters;
+        }
+
+        /**
+         * Plays the session's game until the client quits, disconnects or is
+         * evicted
+         */
+        @Override
+        public void run() {
+            sessions.add(this);
+            try {
+                socket.setSoTimeout(idleMillis);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream(), 256);
+                out = new BufferedOutputStream(socket.getOutputStream(), reply.capacity());
+                engine = new GameEngine(this, seed, levelWorkers);
+                engine.setExitOnDeath(false);
+                engine.getMetrics().setEnabled(false);  //the session keeps its own turn times
+                send("welcome seed " + seed);
+                int length;
+                while (running && (length = readLine()) >= 0) {
+                    if (!handle(new String(line, 0, length, StandardCharsets.US_ASCII).trim()))
+                        break;
+                }
+            } catch (SocketTimeoutException e) {
+                evicted.increment();
+                try {
+                    send("idle");
+                } catch (IOException e2) {
+                    //the client has gone already
+                }
+            } catch (IOException e) {
+                //the client disconnected; nothing to report
+            } finally {
+                close();
+                if (engine != null)
+                    engine.close();
+                sessions.remove(this);
+                sessionCount.decrementAndGet();
+                synchronized (closedLatency) {
+                    synchronized (latency) {
+                        closedLatency.add(latency);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads a command line into the line buffer
+         * @return the length of the line, or -1 if the client has disconnected
+         * or sent a line that is too long
+         * @throws IOException if the connection fails or times out
+         */
+        private int readLine() throws IOException {
+            int length = 0;
+            for (int b = in.read(); b != '\n'; b = in.read()) {
+                if (b < 0)
+                    return -1;
+                if (length == MAX_LINE_LENGTH) {
+                    send("error line too long");
+                    return -1;
+                }
+                line[length++] = (byte) b;
+            }
+            return length;
+        }
+
+        /**
+         * Carries out one command
+         * @param command The command, without spaces at either end
+         * @return false if the session should be closed
+         * @throws IOException if the reply cannot be sent
+         */
+        private boolean handle(String command) throws IOException {
+            switch (command) {
+                case "left": doTurn(GameLoop.LEFT); return true;
+                case "right": doTurn(GameLoop.RIGHT); return true;
+                case "up": doTurn(GameLoop.UP); return true;
+                case "down": doTurn(GameLoop.DOWN); return true;
+                case "wait": doTurn(GameLoop.NONE); return true;
+                case "state": sendState(); return true;
+                case "new": newGame(System.nanoTime()); sendStatus(); return true;
+                case "quit": send("bye"); return false;
+                default: break;
+            }
+            if (command.startsWith("new ")) {
+                try {
+                    newGame(Long.parseLong(command.substring(4).trim()));
+                    sendStatus();
+                } catch (NumberFormatException e) {
+                    send("error bad seed");
+                }
+            } else {
+                send("error unknown command");
+            }
+            return true;
+        }
+
+        /**
+         * Starts a new game with one monster
+         * @param seed The seed of the game
+         */
+        private void newGame(long seed) {
+            engine.setSeed(seed);
+            engine.startGame();
+            turn = 0;
+        }
+
+        /**
+         * Moves the player and does the rest of the turn, then sends the status
+         * @param move One of the GameLoop move constants
+         * @throws IOException if the reply cannot be sent
+         */
+        private void doTurn(int move) throws IOException {
+            long start = System.nanoTime();
+            engine.movePlayer(move);
+            engine.doTurn();
+            long elapsed = System.nanoTime() - start;
+            synchronized (latency) {
+                latency.record(elapsed);
+            }
+            turns.increment();
+            turn++;
+            sendStatus();
+        }
+
+        /**
+         * Sends the turn number, the player's position and health, the depth
+         * and the number of monsters
+         * @throws IOException if the reply cannot be sent
+         */
+        private void sendStatus() throws IOException {
+            reply.setLength(0);
+            reply.append("ok turn ").append(turn)
+                    .append(" player ").append(player.getX()).append(' ').append(player.getY())
+                    .append(" health ").append(player.getHealth())
+                    .append(" depth ").append(engine.getDepth())
+                    .append(" monsters ").append(monsters.size());
+            flushReply();
+        }
+
+        /**
+         * Sends the level as the player knows it, one line per row, then "end"
+         * @throws IOException if the reply cannot be sent
+         */
+        private void sendState() throws IOException {
+            reply.setLength(0);
+            int w = tiles.getWidth(), h = tiles.getHeight();
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++)
+                    reply.append(symbol(x, y));
+                reply.append('\n');
+            }
+            for (int m = 0; m < monsters.size(); m++) {
+                int x = monsters.getX(m), y = monsters.getY(m);
+                if (view == null || view.isVisible(x, y))
+                    reply.setCharAt(y * (w + 1) + x, 'm');
+            }
+            reply.setCharAt(player.getY() * (w + 1) + player.getX(), '@');
+            reply.append("end");
+            flushReply();
+        }
+
+        /**
+         * Returns the character a tile is shown as
+         * @param x The X co-ordinate of the tile
+         * @param y The Y co-ordinate of the tile
+         * @return the character
+         */
+        private char symbol(int x, int y) {
+            if (view != null && !view.isSeen(x, y))
+                return ' ';
+            TileType t = tiles.get(x, y);
+            switch (t) {
+                case WALL: return '#';
+                case STAIRS: return '>';
+                case CHEST: return 'c';
+                default: return '.';
+            }
+        }
+
+        /**
+         * Sends a line to the client
+         * @param text The line, without the line ending
+         * @throws IOException if the line cannot be sent
+         */
+        private void send(String text) throws IOException {
+            reply.setLength(0);
+            reply.append(text);
+            flushReply();
+        }
+
+        /**
+         * Sends the reply buffer followed by a line ending
+         * @throws IOException if the reply cannot be sent
+         */
+        private void flushReply() throws IOException {
+            for (int i = 0; i < reply.length(); i++)
+                out.write(reply.charAt(i));
+            out.write('\n');
+            out.flush();
+        }
+
+        /**
+         * Closes the connection, which also ends the session's thread if it is
+         * waiting for a command
+         */
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //nothing more can be done with the connection
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package uk.ac.bradford.dungeongame;
+
+/**
+ * A GameRenderer that draws nothing. It allows a GameEngine to be created and
+ * driven without a Swing window, for example by the HeadlessRunner class. The
+ * number of display updates requested by the engine is counted so that callers
+ * can check the engine is still producing frames.
+ * @author prtrundl
+ */
+public class HeadlessRenderer implements GameRenderer {
+
+    /**
+     * The number of times updateDisplay has been called on this object
+     */
+    private long updates;
+
+    /**
+     * Records the update but does not draw anything.
+     * @param tiles The tiles of the current level, ignored
+     * @param view The player's field of view, ignored
+     * @param player The current player, ignored
+     * @param monsters The current monsters, ignored
+     */
+    @Override
+    public void updateDisplay(TileGrid tiles, FieldOfView view, Entity player, MonsterStore monsters) {
+        updates++;
+    }
+
+    /**
+     * Returns the number of display updates requested by the engine so far
+     * @return the number of calls made to updateDisplay
+     */
+    public long getUpdates() {
+        return updates;
+    }
+}
@@ -0,0 +1,317 @@
+package uk.ac.bradford.dungeongame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The HeadlessRunner class drives a GameEngine programmatically without a GUI.
+ * Each simulated turn picks a player move in the same way the DungeonInputHandler
+ * does for an arrow key and then calls doTurn() on the engine. The main method
+ * runs a batch of turns and reports the throughput in turns per second, or
+ * replays a game recorded in an InputJournal as fast as possible. It can also
+ * check that turns, and publishing and painting them on an offscreen Canvas,
+ * do not allocate, exiting with a non-zero status if any turn does, so that a
+ * build can fail when something starts allocating on every turn.
+ * @author prtrundl
+ */
+public class HeadlessRunner {
+
+    /**
+     * Used to count the bytes allocated by the thread running the turns
+     */
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * The number of turns run before allocation is measured, so the JIT
+     * compiler has optimised the turn and painting code. Redrawing the tile
+     * layer only happens on about one turn in six, and while it is still being
+     * compiled it can allocate, so the warm up is long enough for it too.
+     */
+    private static final int ALLOCATION_WARMUP_TURNS = 60000;
+
+    /**
+     * The smallest fraction of turns the allocation check must measure. Turns
+     * that change level, restart or generate chunks are left out, which is
+     * usually less than a tenth of them; if many more are left out, something
+     * has started doing those too often and the check is not trustworthy.
+     */
+    private static final double MIN_MEASURED_FRACTION = 0.75;
+
+    /**
+     * The engine that turns are simulated on
+     */
+    private final GameEngine engine;
+
+    /**
+     * Random number generator used to choose player moves, seeded so that a
+     * batch of turns can be repeated
+     */
+    private final Random moves;
+
+    /**
+     * Creates a runner that drives the given engine
+     * @param engine The GameEngine to simulate turns on
+     * @param seed The seed used to choose player moves
+     */
+    public HeadlessRunner(GameEngine engine, long seed) {
+        this.engine = engine;
+        this.moves = new Random(seed);
+        engine.setExitOnDeath(false);   //restart instead of ending the batch
+    }
+
+    /**
+     * Simulates a single turn: moves the player in a random direction and then
+     * lets the engine process the rest of the turn.
+     */
+    public void step() {
+        switch (moves.nextInt(4)) {
+            case 0: engine.movePlayerLeft(); break;
+            case 1: engine.movePlayerRight(); break;
+            case 2: engine.movePlayerUp(); break;
+            default: engine.movePlayerDown(); break;
+        }
+        engine.doTurn();
+    }
+
+    /**
+     * Simulates a number of turns one after another
+     * @param turns The number of turns to simulate
+     */
+    public void run(long turns) {
+        for (long t = 0; t < turns; t++)
+            step();
+    }
+
+    /**
+     * Runs a batch of headless turns and prints the throughput.
+     * @param args Optional number of turns (default 1000000), an optional seed
+     * for the dungeon and the player moves (default 123), an optional number of monsters
+     * (default 1), then optionally "parallel" to turn on parallel monster
+     * updates, "chunked" to play a 4096 by 4096 tile chunked level,
+     * "queued" to pass the moves through an InputQueue to a TurnProcessor thread
+     * and "noise" or "bsp" to generate levels with a NoiseGenerator or
+     * BspGenerator instead of the default CaveGenerator, and "maxalloc=" followed
+     * by a number of bytes to check allocation with checkAllocation, drawing
+     * every turn on an offscreen Canvas, instead of measuring throughput.
+     * Alternatively "replay" followed by a journal file replays a recorded game.
+     * @throws IOException if a journal cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1 && args[0].equals("replay")) {
+            replay(args[1]);
+            return;
+        }
+        long turns = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 123;
+        int monsters = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        long maxAlloc = -1;
+        for (int i = 3; i < args.length; i++)
+            if (args[i].startsWith("maxalloc="))
+                maxAlloc = Long.parseLong(args[i].substring(9));
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        Canvas canvas = maxAlloc >= 0 ? offscreenCanvas() : null;
+        GameEngine engine = new GameEngine(canvas != null ? canvas::publish : renderer);
+        boolean parallel = false, chunked = false, queued = false;
+        for (int i = 3; i < args.length; i++) {
+            parallel |= args[i].equals("parallel");
+            chunked |= args[i].equals("chunked");
+            queued |= args[i].equals("queued");
+            if (args[i].equals("noise"))
+                engine.setLevelGenerator(new NoiseGenerator());
+            else if (args[i].equals("bsp"))
+                engine.setLevelGenerator(new BspGenerator());
+        }
+        engine.setParallelMonsters(parallel);
+        engine.setSeed(seed);
+        if (chunked)
+            engine.startChunkedGame(new ChunkedLevel(4096, 4096, seed), monsters);
+        else
+            engine.startGame(monsters);
+        if (queued) {
+            runQueued(engine, turns, seed);
+            return;
+        }
+        HeadlessRunner runner = new HeadlessRunner(engine, seed);
+        if (canvas != null) {
+            canvas.setMetrics(engine.getMetrics());
+            canvas.toggleOverlay();     //draw the timings too
+            if (!runner.checkAllocation(turns, maxAlloc, canvas))
+                System.exit(1);
+            return;
+        }
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        runner.run(turns);
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        System.out.println(turns + " turns in " + (elapsed / 1000000) + " ms ("
+                + (long) (turns / (elapsed / 1e9)) + " turns/s, "
+                + renderer.getUpdates() + " display updates)");
+        if (allocated >= 0)
+            System.out.println(String.format("%.1f bytes allocated per turn", (double) allocated / turns));
+        LatencyHistogram turn = engine.getMetrics().get(TurnMetrics.Phase.TURN);
+        System.out.println("turn latency p50 " + turn.getPercentile(50) / 1000 + " us, p99 "
+                + turn.getPercentile(99) / 1000 + " us, max " + turn.getMax() / 1000 + " us");
+        System.out.println(engine.getLevelCache().getHits() + " level cache hits, "
+                + engine.getLevelCache().getMisses() + " misses");
+        if (chunked)
+            System.out.println(engine.getChunkedLevel().getLoadedChunks() + " chunks loaded, "
+                    + engine.getChunkedLevel().getChunksGenerated() + " generated");
+    }
+
+    /**
+     * Creates a Canvas the size of the game window that is not shown, for
+     * drawing turns into an image
+     * @return the canvas
+     */
+    private static Canvas offscreenCanvas() {
+        Canvas canvas = new Canvas();
+        canvas.setSize(GameEngine.DUNGEON_WIDTH * GameGUI.TILE_WIDTH,
+                GameEngine.DUNGEON_HEIGHT * GameGUI.TILE_HEIGHT);
+        return canvas;
+    }
+
+    /**
+     * Checks that turns allocate no more than a limit. The engine must draw to
+     * the canvas with Canvas.publish. Each turn is done, then the canvas takes
+     * the scene the turn published and paints it into an image, as the render
+     * thread of an ActiveGameGUI does. After a warm up, every turn is measured
+     * on its own, leaving out turns that are expected to allocate: moving to a
+     * new level, restarting the game after the player dies and generating new
+     * chunks of a chunked level. The result and the number of turns left out
+     * are printed.
+     * <p>
+     * Canvas.update, used by a GameGUI, is publish followed by posting the take
+     * to the event dispatch thread; the post is not measured, because the AWT
+     * event queue allocates an event for every post. Posts are coalesced, so
+     * there is at most one for each frame drawn.
+     * @param turns The number of turns to do after the warm up
+     * @param maxBytes The largest number of bytes any one measured turn may allocate
+     * @param canvas The canvas the engine publishes to
+     * @return true if no measured turn allocated more than maxBytes and enough
+     * turns were measured, or the JVM does not count allocated bytes
+     */
+    public boolean checkAllocation(long turns, long maxBytes, Canvas canvas) {
+        BufferedImage image = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        for (int t = 0; t < ALLOCATION_WARMUP_TURNS; t++)
+            drawStep(canvas, g2);
+        LatencyHistogram spawns = engine.getMetrics().get(TurnMetrics.Phase.SPAWN_MONSTERS);
+        ChunkedLevel world = engine.getChunkedLevel();
+        long measured = 0, total = 0, over = 0, most = 0;
+        for (long t = 0; t < turns; t++) {
+            int depth = engine.getDepth();
+            long games = spawns.getCount();
+            long chunks = world == null ? 0 : world.getChunksGenerated();
+            long before = allocatedBytes();
+            drawStep(canvas, g2);
+            long bytes = allocatedBytes() - before;
+            if (engine.getDepth() != depth || spawns.getCount() != games
+                    || (world != null && world.getChunksGenerated() != chunks))
+                continue;
+            measured++;
+            total += bytes;
+            most = Math.max(most, bytes);
+            if (bytes > maxBytes)
+                over++;
+        }
+        g2.dispose();
+        if (allocatedBytes() < 0) {
+            System.out.println("allocation is not counted by this JVM, not checked");
+            return true;
+        }
+        boolean enough = measured >= turns * MIN_MEASURED_FRACTION;
+        boolean ok = over == 0 && enough;
+        System.out.println((ok ? "ok: " : "FAILED: ") + measured + " of " + turns + " turns measured, "
+                + (turns - measured) + " left out for new levels, restarts and new chunks; "
+                + over + " allocated more than " + maxBytes + " bytes, most in one turn " + most
+                + ", total " + total);
+        if (!enough)
+            System.out.println("too many turns left out, at least " + (long) (turns * MIN_MEASURED_FRACTION)
+                    + " must be measured");
+        return ok;
+    }
+
+    /**
+     * Does one turn and draws it as the render thread of an ActiveGameGUI does
+     * @param canvas The canvas the engine publishes to
+     * @param g2 The graphics of the image the canvas paints into
+     */
+    private void drawStep(Canvas canvas, Graphics2D g2) {
+        step();
+        canvas.takeScene();
+        canvas.paintComponent(g2);
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated so far.
+     * Turns should allocate nothing once the level is built, except when the
+     * player moves to a new level or the game restarts, so this shows when
+     * something has started allocating on every turn.
+     * @return the number of bytes, or -1 if the JVM does not count them
+     */
+    static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Replays a game recorded in an InputJournal on an engine without a GUI and
+     * prints the throughput, the turn latency and a checksum of the final state,
+     * which matches the checksum of the recorded game at the same point.
+     * @param file The journal file
+     * @throws IOException if the journal cannot be read
+     */
+    private static void replay(String file) throws IOException {
+        InputJournal.Session session = InputJournal.read(Paths.get(file));
+        HeadlessRenderer renderer = new HeadlessRenderer();
+        GameEngine engine = new GameEngine(renderer);
+        engine.getMetrics().reset();    //only time the replayed turns
+        long start = System.nanoTime();
+        session.replay(engine);
+        long elapsed = System.nanoTime() - start;
+        System.out.println("replayed " + session.getLength() + " commands of seed " + session.getSeed()
+                + " in " + (elapsed / 1000000) + " ms (" + (long) (session.getLength() / (elapsed / 1e9))
+                + " commands/s, " + renderer.getUpdates() + " display updates)");
+        LatencyHistogram turn = engine.getMetrics().get(TurnMetrics.Phase.TURN);
+        System.out.println("turn latency p50 " + turn.getPercentile(50) / 1000 + " us, p99 "
+                + turn.getPercentile(99) / 1000 + " us, max " + turn.getMax() / 1000 + " us");
+        System.out.println("final state checksum " + Long.toHexString(engine.stateChecksum()));
+    }
+
+    /**
+     * Offers random moves to an InputQueue as fast as a TurnProcessor thread can
+     * do turns for them, then prints the throughput and the input-to-display
+     * latency measured by the processor.
+     * @param engine The engine to do turns on
+     * @param turns The number of moves to offer
+     * @param seed The seed used to choose moves
+     */
+    private static void runQueued(GameEngine engine, long turns, long seed) {
+        InputQueue queue = new InputQueue(64, InputQueue.Coalescing.KEEP_ALL);
+        TurnProcessor processor = new TurnProcessor(engine, queue);
+        Random moves = new Random(seed);
+        engine.setExitOnDeath(false);
+        processor.start();
+        long start = System.nanoTime();
+        for (long t = 0; t < turns; t++) {
+            while (t - processor.getTurns() >= 64)
+                Thread.yield();         //wait for room rather than dropping moves
+            queue.offer(moves.nextInt(4));
+        }
+        while (processor.getTurns() < turns)
+            Thread.yield();
+        long elapsed = System.nanoTime() - start;
+        processor.stop();
+        System.out.println(turns + " queued turns in " + (elapsed / 1000000) + " ms ("
+                + (long) (turns / (elapsed / 1e9)) + " turns/s), input to display latency mean "
+                + processor.getMeanLatencyNanos() / 1000 + " us, max "
+                + processor.getMaxLatencyNanos() / 1000 + " us");
+    }
+}
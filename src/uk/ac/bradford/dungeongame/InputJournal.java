@@ -0,0 +1,232 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The InputJournal class records a game so that it can be replayed exactly.
+ * The game is fully determined by its seed, the number of monsters it started
+ * with and the command made on each turn, so the journal starts with the seed
+ * and monster count and then has one byte per turn: the move made (one of the
+ * GameLoop move constants, or GameLoop.NONE for a turn without a move) or a
+ * SAVE or LOAD command. Records are only ever appended, through a buffer, so
+ * recording costs a byte copy per turn; the buffer is written out when it fills
+ * and when the journal is closed.
+ * <p>
+ * A Session read back from a journal can be replayed against a GameEngine
+ * without a GUI, as fast as turns can be done, to reproduce a reported bug or to
+ * measure doTurn with a real recorded game.
+ * @author prtrundl
+ */
+public class InputJournal {
+
+    /**
+     * The first four bytes of every journal ("DJNL")
+     */
+    static final int MAGIC = 0x444A4E4C;
+
+    /**
+     * The version of the journal format written by this class
+     */
+    public static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private boolean failed;
+    private long records;
+
+    /**
+     * Starts a journal on a stream by writing its header
+     * @param out The stream to write to
+     * @param seed The seed of the game being recorded
+     * @param monsterCount The number of monsters the game starts with
+     * @throws IOException if the header cannot be written
+     */
+    public InputJournal(OutputStream out, long seed, int monsterCount) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeInt(monsterCount);
+    }
+
+    /**
+     * Creates a journal file, replacing any file with the same name
+     * @param file The file to write
+     * @param seed The seed of the game being recorded
+     * @param monsterCount The number of monsters the game starts with
+     * @return the journal
+     * @throws IOException if the file cannot be created
+     */
+    public static InputJournal create(Path file, long seed, int monsterCount) throws IOException {
+        return new InputJournal(new BufferedOutputStream(Files.newOutputStream(file), 8192), seed, monsterCount);
+    }
+
+    /**
+     * Appends the command made on a turn. If the journal cannot be written the
+     * problem is reported to the event log once and later commands are ignored,
+     * so a full disk never stops the game.
+     * @param command A GameLoop move constant, NONE, SAVE or LOAD
+     */
+    public synchronized void record(int command) {
+        if (failed)
+            return;
+        try {
+            out.writeByte(command);
+            records++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Returns the number of commands recorded
+     * @return the number of records
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * Writes out any buffered commands
+     */
+    public synchronized void flush() {
+        if (failed)
+            return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes out any buffered commands and closes the journal. Later commands
+     * are ignored.
+     */
+    public synchronized void close() {
+        if (!failed) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        failed = true;
+    }
+
+    /**
+     * Stops recording after a write fails
+     * @param e The exception thrown by the write
+     */
+    private void fail(IOException e) {
+        failed = true;
+        EventLog.getDefault().log(EventLog.ERROR, EventLog.SYSTEM, "input journal stopped", e);
+    }
+
+    /**
+     * Reads a journal file
+     * @param file The file to read
+     * @return the recorded session
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static Session read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads a journal from a stream
+     * @param stream The stream to read, which is read to its end
+     * @return the recorded session
+     * @throws IOException if the stream cannot be read or is not a journal
+     */
+    public static Session read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC)
+            throw new IOException("not an input journal");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("unsupported input journal version " + version);
+        long seed = in.readLong();
+        int monsterCount = in.readInt();
+        ByteArrayOutputStream commands = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        for (int n; (n = in.read(chunk)) > 0; )
+            commands.write(chunk, 0, n);
+        return new Session(seed, monsterCount, commands.toByteArray());
+    }
+
+    /**
+     * A game read back from a journal: its seed, starting monster count and the
+     * command made on each turn
+     */
+    public static class Session {
+
+        private final long seed;
+        private final int monsterCount;
+        private final byte[] commands;
+
+        /**
+         * Creates a session
+         * @param seed The seed of the game
+         * @param monsterCount The number of monsters the game started with
+         * @param commands The command made on each turn
+         */
+        public Session(long seed, int monsterCount, byte[] commands) {
+            this.seed = seed;
+            this.monsterCount = monsterCount;
+            this.commands = commands;
+        }
+
+        /**
+         * Returns the seed of the game
+         * @return the seed
+         */
+        public long getSeed() {
+            return seed;
+        }
+
+        /**
+         * Returns the number of commands in the session
+         * @return the number of turns, saves and loads recorded
+         */
+        public int getLength() {
+            return commands.length;
+        }
+
+        /**
+         * Plays the session again on an engine: starts a game with the recorded
+         * seed and monster count, then makes every recorded command in order.
+         * Death restarts the game as it did when recorded. Quick saves and loads
+         * use a temporary file, so a load only gives the recorded result if the
+         * matching save was made during the session.
+         * @param engine The engine to replay on, normally with a HeadlessRenderer
+         * @throws IOException if the temporary save file cannot be created
+         */
+        public void replay(GameEngine engine) throws IOException {
+            Path save = Files.createTempFile("dungeon-replay", ".sav");
+            try {
+                engine.setQuickSaveFile(save);
+                engine.setExitOnDeath(false);
+                engine.setSeed(seed);
+                engine.startGame(monsterCount);
+                for (byte command : commands) {
+                    if (!engine.saveOrLoad(command)) {
+                        engine.movePlayer(command);
+                        engine.doTurn();
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(save);
+            }
+        }
+    }
+}
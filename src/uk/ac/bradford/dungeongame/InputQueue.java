@@ -0,0 +1,242 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The InputQueue class passes player commands from the thread that captures
+ * input (the Swing event thread) to the thread that runs game turns, so a slow
+ * turn never holds up the user interface. It is a bounded, lock-free ring buffer
+ * for one producer thread and one consumer thread. Commands are the move
+ * constants of GameLoop, with GameLoop.NONE meaning a turn without a move.
+ * <p>
+ * Holding a key down produces a stream of repeated key presses, so the queue
+ * can coalesce commands as set by its Coalescing policy, and it can drop
+ * commands that have waited longer than a maximum age. When the queue is full,
+ * new commands are dropped. Every command remembers when it was offered, so the
+ * consumer can measure the latency from input to display.
+ * @author prtrundl
+ */
+public class InputQueue {
+
+    /**
+     * How repeated commands are combined
+     */
+    public enum Coalescing {
+        /** every command is kept */
+        KEEP_ALL,
+        /** a command the same as the last one still waiting in the queue is dropped */
+        COLLAPSE_REPEATS,
+        /** only the newest waiting command is used, older ones are dropped */
+        LATEST_ONLY
+    }
+
+    /**
+     * Returned by poll when no command is waiting
+     */
+    public static final int EMPTY = Integer.MIN_VALUE;
+
+    /**
+     * The waiting commands and the System.nanoTime each was offered at
+     */
+    private final int[] commands;
+    private final long[] times;
+
+    /**
+     * Mask for turning a sequence number into a slot index; the capacity is a
+     * power of two
+     */
+    private final int mask;
+
+    /**
+     * The sequence number of the next command to be offered and of the next
+     * command to be polled
+     */
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile Coalescing coalescing;
+
+    /**
+     * Commands older than this are dropped by poll, or 0 to keep commands however
+     * long they wait
+     */
+    private volatile long maxAgeNanos;
+
+    /**
+     * The last command offered, used to collapse repeats. Only used by the producer.
+     */
+    private int lastOffered = EMPTY;
+
+    /**
+     * The time the command last returned by poll was offered. Only used by the consumer.
+     */
+    private long polledAt;
+
+    /**
+     * The thread waiting in take, woken when a command is offered
+     */
+    private volatile Thread consumer;
+
+    /**
+     * Counts of commands offered, dropped because the queue was full, dropped by
+     * coalescing, and dropped for being older than the maximum age
+     */
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    /**
+     * Creates an empty queue
+     * @param capacity The number of commands the queue can hold, rounded up to a
+     * power of two
+     * @param coalescing How repeated commands are combined
+     */
+    public InputQueue(int capacity, Coalescing coalescing) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        commands = new int[size];
+        times = new long[size];
+        mask = size - 1;
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Adds a command to the queue. Must only be called from the producer thread.
+     * @param command The command, one of the GameLoop move constants
+     * @return true if the command was queued, false if it was coalesced or the
+     * queue was full
+     */
+    public boolean offer(int command) {
+        offered.incrementAndGet();
+        long h = head.get();
+        long t = tail.get();
+        if (coalescing == Coalescing.COLLAPSE_REPEATS && h != t && command == lastOffered) {
+            coalesced.incrementAndGet();
+            return false;
+        }
+        if (h - t > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int i = (int) h & mask;
+        commands[i] = command;
+        times[i] = System.nanoTime();
+        head.lazySet(h + 1);
+        lastOffered = command;
+        Thread c = consumer;
+        if (c != null)
+            LockSupport.unpark(c);
+        return true;
+    }
+
+    /**
+     * Removes the next command from the queue, applying the maximum age and the
+     * LATEST_ONLY policy. Must only be called from the consumer thread.
+     * @return the command, or EMPTY if no command is waiting
+     */
+    public int poll() {
+        long t = tail.get();
+        long h = head.get();
+        long maxAge = maxAgeNanos;
+        boolean latestOnly = coalescing == Coalescing.LATEST_ONLY;
+        while (t < h) {
+            int i = (int) t & mask;
+            int command = commands[i];
+            long at = times[i];
+            t++;
+            if (maxAge > 0 && System.nanoTime() - at > maxAge) {
+                stale.incrementAndGet();
+            } else if (latestOnly && t < h) {
+                coalesced.incrementAndGet();
+            } else {
+                tail.lazySet(t);
+                polledAt = at;
+                return command;
+            }
+        }
+        tail.lazySet(t);
+        return EMPTY;
+    }
+
+    /**
+     * Removes the next command from the queue, waiting for one to be offered if
+     * the queue is empty. Must only be called from the consumer thread.
+     * @return the command
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        int command;
+        while ((command = poll()) == EMPTY) {
+            LockSupport.park(this);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return command;
+    }
+
+    /**
+     * Returns when the command last returned by poll or take was offered
+     * @return the System.nanoTime the command was offered at
+     */
+    public long getPolledTime() {
+        return polledAt;
+    }
+
+    /**
+     * Sets how repeated commands are combined
+     * @param coalescing The new policy
+     */
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * Returns how repeated commands are combined
+     * @return the policy
+     */
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Sets how long a command may wait before it is dropped as stale
+     * @param nanos The maximum age in nanoseconds, or 0 for no limit
+     */
+    public void setMaxAgeNanos(long nanos) {
+        maxAgeNanos = nanos;
+    }
+
+    /**
+     * Returns the number of commands offered
+     * @return the number of commands offered
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * Returns the number of commands dropped because the queue was full
+     * @return the number of dropped commands
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of commands dropped by the coalescing policy
+     * @return the number of coalesced commands
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the number of commands dropped for waiting too long
+     * @return the number of stale commands
+     */
+    public long getStale() {
+        return stale.get();
+    }
+}
@@ -0,0 +1,132 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+
+/**
+ * The LatencyHistogram class counts recorded times in a fixed number of
+ * buckets, so that percentiles such as the median (p50) and p99 can be read
+ * without storing every value. Buckets grow with the value: each power of two
+ * is split into eight buckets, so a percentile is accurate to within about 12%
+ * for any time from a nanosecond to hours, using the same small array however
+ * many values are recorded.
+ * <p>
+ * Recording is not synchronised and is meant to be done by one thread at a
+ * time; other threads may read the counts while it records, and will see
+ * values that are at most a few recordings out of date.
+ * @author prtrundl
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets each power of two is split into, as a power of two
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets needed to cover every positive long
+     */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Records a time
+     * @param nanos The time in nanoseconds; negative times are recorded as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[bucketOf(nanos)]++;
+        count++;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    /**
+     * Returns the number of times recorded
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the longest time recorded
+     * @return the maximum in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the time that a given percentage of the recorded times are at or below
+     * @param percentile The percentage, e.g. 50 for the median or 99
+     * @return the time in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count;
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(valueOf(i), max);
+        }
+        return max;
+    }
+
+    /**
+     * Adds every time recorded by another histogram to this one, for example
+     * to combine the histograms kept by several threads
+     * @param other The histogram to add, which is not changed
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * Removes every recorded time
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    /**
+     * Works out which bucket a time is counted in
+     * @param v The time, which must not be negative
+     * @return the bucket index
+     */
+    private static int bucketOf(long v) {
+        if (v < SUB_COUNT)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + (int) ((v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    /**
+     * Returns the time reported for a bucket, which is the middle of the range
+     * of times counted in it
+     * @param bucket The bucket index
+     * @return the time in nanoseconds
+     */
+    private static long valueOf(int bucket) {
+        if (bucket < SUB_COUNT)
+            return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long lower = (long) (SUB_COUNT + bucket % SUB_COUNT) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+}
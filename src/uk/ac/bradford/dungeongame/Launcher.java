@@ -1,6 +1,8 @@
 package uk.ac.bradford.dungeongame;
 
 import java.awt.EventQueue;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * This class is the entry point for the project, containing the main method that
@@ -10,7 +12,41 @@ import java.awt.EventQueue;
  */
 public class Launcher {
     
+    /**
+     * The number of key presses that can wait for the game thread
+     */
+    private static final int INPUT_QUEUE_SIZE = 64;
+    
+    /**
+     * Key presses that have waited longer than this (half a second) are dropped
+     */
+    private static final long STALE_INPUT_NANOS = 500000000L;
+    
+    /**
+     * The file every game is recorded to unless the dungeon.journal system
+     * property names another
+     */
+    private static final String DEFAULT_JOURNAL = "dungeon.journal";
+    
+    /**
+     * Starts the game. Passing "active" as the first argument uses the
+     * ActiveGameGUI, which draws frames on its own render thread, instead of
+     * the default GameGUI. Passing "realtime" also uses the ActiveGameGUI and
+     * runs the game in real time with a GameLoop, so monsters keep moving
+     * without waiting for key presses. Otherwise key presses are queued and
+     * turns are done on a separate game thread; the dungeon.input system property
+     * (keep_all, collapse_repeats or latest_only) chooses how repeated key
+     * presses are combined.
+     * <p>
+     * Each game uses a new seed, or the one given by the dungeon.seed system
+     * property, and is recorded to an InputJournal so that it can be replayed
+     * with HeadlessRunner.
+     * @param args Optional rendering mode
+     */
     public static void main(String[] args) {
+        Tileset.getDefault();   //starts loading images while the window is made
+        final boolean realTime = args.length > 0 && args[0].equals("realtime");
+        final boolean active = realTime || args.length > 0 && args[0].equals("active");
         EventQueue.invokeLater(new Runnable() {
         
             /**
@@ -20,15 +56,72 @@ public class Launcher {
              */
             @Override
             public void run() {
+                if (active) {
+                    ActiveGameGUI gui = new ActiveGameGUI();    //create GUI
+                    gui.setVisible(true);
+                    GameEngine eng = startRecordedGame(gui);    //create engine
+                    gui.setMetrics(eng.getMetrics());           //F3 shows timings
+                    eng.getMetrics().register("game");          //and so does JMX
+                    if (realTime) {
+                        GameLoop loop = new GameLoop(eng, new Clock(), GameLoop.DEFAULT_TICK_RATE);
+                        gui.registerKeyHandler(new DungeonInputHandler(eng, loop));
+                        gui.setGameLoop(loop);
+                        loop.start();                           //starts game loop thread
+                    } else {
+                        gui.registerKeyHandler(new DungeonInputHandler(eng, startTurns(eng)));
+                    }
+                    gui.start();                                //starts render thread
+                    return;
+                }
                 GameGUI gui = new GameGUI();            //create GUI
                 gui.setVisible(true);
                 //display GUI
-                GameEngine eng = new GameEngine(gui);   //create engine
-                DungeonInputHandler i = new DungeonInputHandler(eng);   //create input handler
+                GameEngine eng = startRecordedGame(gui);    //create engine and start the game
+                gui.setMetrics(eng.getMetrics());       //F3 shows timings
+                eng.getMetrics().register("game");      //and so does JMX
+                DungeonInputHandler i = new DungeonInputHandler(eng, startTurns(eng));  //create input handler
                 gui.registerKeyHandler(i);              //registers handler with GUI
-                eng.startGame();                        //starts the game
             }
         });
     }
     
+    /**
+     * Creates an engine whose game is started with a new seed, recording it to
+     * the journal file. The seed is chosen first so the engine only generates
+     * its first level once. The journal is closed, writing out any buffered
+     * commands, when the program exits. If the journal cannot be created the
+     * game is played unrecorded.
+     * @param gui The GameRenderer the engine draws to
+     * @return the engine, with its game started
+     */
+    private static GameEngine startRecordedGame(GameRenderer gui) {
+        GameEngine eng = new GameEngine(gui, Long.getLong("dungeon.seed", System.currentTimeMillis()));
+        String file = System.getProperty("dungeon.journal", DEFAULT_JOURNAL);
+        try {
+            InputJournal journal = InputJournal.create(Paths.get(file), eng.getSeed(), 1);
+            eng.setJournal(journal);
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close, "dungeon-journal-close"));
+        } catch (IOException e) {
+            EventLog.getDefault().log(EventLog.ERROR, EventLog.SYSTEM, "cannot record game", e);
+        }
+        return eng;
+    }
+    
+    /**
+     * Creates the input queue and starts the game thread that does turns for it
+     * @param eng The engine to do turns on
+     * @return the queue for the input handler to offer key presses to
+     */
+    private static InputQueue startTurns(GameEngine eng) {
+        InputQueue.Coalescing coalescing = InputQueue.Coalescing.COLLAPSE_REPEATS;
+        String policy = System.getProperty("dungeon.input");
+        for (InputQueue.Coalescing c : InputQueue.Coalescing.values())
+            if (c.name().equalsIgnoreCase(policy))
+                coalescing = c;
+        InputQueue queue = new InputQueue(INPUT_QUEUE_SIZE, coalescing);
+        queue.setMaxAgeNanos(STALE_INPUT_NANOS);
+        new TurnProcessor(eng, queue).start();
+        return queue;
+    }
+    
 }
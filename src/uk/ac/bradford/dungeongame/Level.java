@@ -0,0 +1,46 @@
+package uk.ac.bradford.dungeongame;
+
+/**
+ * The Level class groups together everything that is built for one level of the
+ * dungeon before the player arrives in it: the tiles, the free spawn tiles left
+ * after monsters have been placed, and the monsters themselves. Levels can be
+ * built on a background thread by GameEngine and swapped in when the player
+ * takes the stairs.
+ * @author prtrundl
+ */
+class Level {
+
+    /**
+     * The depth in the dungeon this level was built for
+     */
+    final int depth;
+
+    /**
+     * The tiles of the level
+     */
+    final TileGrid tiles;
+
+    /**
+     * The tiles still free for spawning the player
+     */
+    final SpawnIndex spawns;
+
+    /**
+     * The monsters on the level
+     */
+    final MonsterStore monsters;
+
+    /**
+     * Creates a level from its parts
+     * @param depth The depth of the level
+     * @param tiles The tiles of the level
+     * @param spawns The free spawn tiles
+     * @param monsters The monsters on the level
+     */
+    Level(int depth, TileGrid tiles, SpawnIndex spawns, MonsterStore monsters) {
+        this.depth = depth;
+        this.tiles = tiles;
+        this.spawns = spawns;
+        this.monsters = monsters;
+    }
+}
@@ -0,0 +1,134 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The LevelCache class keeps the tiles of recently generated levels, keyed by
+ * the game seed, the depth of the level and the generator that made it. Level
+ * generation is deterministic for a given seed, depth and generator, so a level that is asked for again (after a
+ * restart, in a replay or in a benchmark) is copied out of the cache instead of
+ * being generated again. When the cache is full the least recently used level
+ * is dropped. Callers always receive their own copy of the tiles, so changes
+ * made during play never reach the cached level. The cache can be used from
+ * the game thread and the background level worker at the same time.
+ * @author prtrundl
+ */
+public class LevelCache {
+
+    /**
+     * The cached levels in access order, least recently used first
+     */
+    private final LinkedHashMap<Key, TileGrid> levels;
+
+    /**
+     * The number of lookups that found a cached level
+     */
+    private long hits;
+
+    /**
+     * The number of lookups that had to generate the level
+     */
+    private long misses;
+
+    /**
+     * Creates an empty cache
+     * @param capacity The largest number of levels kept at once
+     */
+    public LevelCache(final int capacity) {
+        levels = new LinkedHashMap<Key, TileGrid>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, TileGrid> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the tiles for a level, generating and caching the level
+     * first if it is not already in the cache
+     * @param seed The seed of the game
+     * @param depth The depth of the level
+     * @param generator The generator that lays out the level
+     * @return a new TileGrid holding the level's tiles
+     */
+    public TileGrid get(long seed, int depth, LevelGenerator generator) {
+        Key key = new Key(seed, depth, generator);
+        TileGrid level;
+        synchronized (this) {
+            level = levels.get(key);
+            if (level != null)
+                hits++;
+            else
+                misses++;
+        }
+        if (level == null) {            //generate outside the lock
+            level = GameEngine.generateLevel(seed, depth, generator);
+            synchronized (this) {
+                levels.put(key, level);
+            }
+        }
+        return new TileGrid(level);
+    }
+
+    /**
+     * Drops every cached level. The hit and miss counters are kept.
+     */
+    public synchronized void clear() {
+        levels.clear();
+    }
+
+    /**
+     * Returns the number of levels currently cached
+     * @return the number of cached levels
+     */
+    public synchronized int size() {
+        return levels.size();
+    }
+
+    /**
+     * Returns the number of lookups that were answered from the cache
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to generate their level
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The seed, depth and generator a level is cached under. Generators are
+     * compared by identity.
+     */
+    private static final class Key {
+
+        private final long seed;
+        private final int depth;
+        private final LevelGenerator generator;
+
+        Key(long seed, int depth, LevelGenerator generator) {
+            this.seed = seed;
+            this.depth = depth;
+            this.generator = generator;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return k.seed == seed && k.depth == depth && k.generator == generator;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Long.hashCode(seed) * 31 + depth) * 31 + System.identityHashCode(generator);
+        }
+    }
+}
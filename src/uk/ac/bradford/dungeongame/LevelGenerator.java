@@ -0,0 +1,25 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Random;
+
+/**
+ * The LevelGenerator interface is implemented by each algorithm that can lay
+ * out the walls and floors of a dungeon level. The GameEngine uses one
+ * generator for every level and then adds the stairs itself. A generator must
+ * only use the random number generator it is given, so that a seed always
+ * gives the same level, and must keep no state between calls, because levels
+ * are generated on the game thread and the background level worker at the same
+ * time.
+ * @author prtrundl
+ */
+public interface LevelGenerator {
+
+    /**
+     * Generates the walls and floors of a level
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     * @param r The random number generator to build the level with
+     * @return a new TileGrid holding only WALL and FLOOR tiles
+     */
+    TileGrid generate(int width, int height, Random r);
+}
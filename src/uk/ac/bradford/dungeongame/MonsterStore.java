@@ -0,0 +1,317 @@
+package uk.ac.bradford.dungeongame;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The MonsterStore class holds all of the monsters on a level as parallel arrays
+ * of ints (position, health and maximum health) rather than as an array of Entity
+ * objects. Live monsters are always packed into slots 0 to size()-1, so processing
+ * every monster is a simple loop with no null checks. When a monster is removed
+ * the last monster is moved into its slot, so slots can change; each monster also
+ * has an id that stays the same for as long as it is alive, and can be turned back
+ * into its current slot with slotOf. If an OccupancyGrid is attached it is
+ * updated whenever a monster is added, moved or removed.
+ * @author prtrundl
+ */
+public class MonsterStore {
+
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] health;
+    private final int[] maxHealth;
+
+    /**
+     * The position of each monster at the start of the current real-time tick
+     */
+    private final int[] prevXs;
+    private final int[] prevYs;
+
+    /**
+     * The id of the monster in each slot
+     */
+    private final int[] ids;
+
+    /**
+     * The slot of each monster id, or -1 if no live monster has that id
+     */
+    private final int[] slots;
+
+    /**
+     * The number of live monsters
+     */
+    private int size;
+
+    /**
+     * The occupancy grid kept in sync with monster positions, or null
+     */
+    private OccupancyGrid occupancy;
+
+    /**
+     * Creates an empty store that can hold up to capacity monsters
+     * @param capacity The maximum number of monsters, usually MAX_MONSTERS
+     */
+    public MonsterStore(int capacity) {
+        xs = new int[capacity];
+        ys = new int[capacity];
+        prevXs = new int[capacity];
+        prevYs = new int[capacity];
+        health = new int[capacity];
+        maxHealth = new int[capacity];
+        ids = new int[capacity];
+        slots = new int[capacity];
+        clear();
+    }
+
+    /**
+     * Returns the number of bytes writeTo will write
+     * @return the saved size of the store in bytes
+     */
+    public int savedSize() {
+        return 4 + 16 * size;
+    }
+
+    /**
+     * Writes the positions and health of every monster to a buffer as four
+     * blocks of ints, preceded by the number of monsters. Used when saving a game.
+     * @param buffer The buffer to write to, which must have savedSize() bytes left
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(xs, 0, size).put(ys, 0, size).put(health, 0, size).put(maxHealth, 0, size);
+        buffer.position(buffer.position() + 16 * size);
+    }
+
+    /**
+     * Creates a store holding the monsters written to a buffer by writeTo. The
+     * arrays are filled with bulk copies rather than adding monsters one at a time.
+     * @param buffer The buffer to read from
+     * @param minCapacity The smallest capacity the new store should have
+     * @return a new store holding the monsters, with no occupancy grid attached
+     */
+    public static MonsterStore readFrom(ByteBuffer buffer, int minCapacity) {
+        int n = buffer.getInt();
+        if (n < 0 || n > buffer.remaining() / 16)
+            throw new IllegalArgumentException("bad monster count " + n);
+        MonsterStore store = new MonsterStore(Math.max(n, minCapacity));
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(store.xs, 0, n).get(store.ys, 0, n).get(store.health, 0, n).get(store.maxHealth, 0, n);
+        buffer.position(buffer.position() + 16 * n);
+        for (int i = 0; i < n; i++)
+            store.slots[i] = i;     //slot i holds id i, as after adding n monsters
+        store.size = n;
+        return store;
+    }
+
+    /**
+     * Removes every monster from the store
+     */
+    public void clear() {
+        if (occupancy != null)
+            for (int i = 0; i < size; i++)
+                occupancy.remove(xs[i], ys[i], ids[i]);
+        size = 0;
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i;         //free ids are kept in the unused slots
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * Attaches an occupancy grid that will be kept up to date with the positions
+     * of the monsters in this store. Monsters already in the store are added to it.
+     * @param grid The OccupancyGrid for the current level, or null to detach
+     */
+    public void setOccupancy(OccupancyGrid grid) {
+        occupancy = grid;
+        if (grid != null)
+            for (int i = 0; i < size; i++)
+                grid.put(xs[i], ys[i], ids[i]);
+    }
+
+    /**
+     * Returns the maximum number of monsters this store can hold
+     * @return the capacity of the store
+     */
+    public int capacity() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the number of live monsters, which occupy slots 0 to size()-1
+     * @return the number of monsters in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a monster at full health
+     * @param x The X position of the monster
+     * @param y The Y position of the monster
+     * @param maxHealth The maximum and starting health of the monster
+     * @return the id of the new monster, or -1 if the store is full
+     */
+    public int add(int x, int y, int maxHealth) {
+        if (size == ids.length)
+            return -1;
+        int slot = size++;
+        int id = ids[slot];
+        slots[id] = slot;
+        xs[slot] = x;
+        ys[slot] = y;
+        prevXs[slot] = x;
+        prevYs[slot] = y;
+        health[slot] = maxHealth;
+        this.maxHealth[slot] = maxHealth;
+        if (occupancy != null)
+            occupancy.put(x, y, id);
+        return id;
+    }
+
+    /**
+     * Removes the monster in a slot by moving the last monster into the slot
+     * @param slot The slot of the monster to remove
+     */
+    public void remove(int slot) {
+        int last = --size;
+        int id = ids[slot];
+        if (occupancy != null)
+            occupancy.remove(xs[slot], ys[slot], id);
+        int lastId = ids[last];
+        xs[slot] = xs[last];
+        ys[slot] = ys[last];
+        prevXs[slot] = prevXs[last];
+        prevYs[slot] = prevYs[last];
+        health[slot] = health[last];
+        maxHealth[slot] = maxHealth[last];
+        ids[slot] = lastId;
+        slots[lastId] = slot;
+        ids[last] = id;         //the freed id is kept in the now unused slot
+        slots[id] = -1;
+    }
+
+    /**
+     * Removes every monster with 0 or less health
+     * @return the number of monsters removed
+     */
+    public int removeDead() {
+        int removed = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            if (health[i] < 1) {
+                remove(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the slot that a monster currently occupies
+     * @param id The id returned when the monster was added
+     * @return the slot of the monster, or -1 if it has been removed
+     */
+    public int slotOf(int id) {
+        return slots[id];
+    }
+
+    /**
+     * Returns the id of the monster in a slot
+     * @param slot The slot of the monster
+     * @return the id of the monster
+     */
+    public int getId(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * Returns the X position of the monster in a slot
+     * @param slot The slot of the monster
+     * @return the X position of the monster
+     */
+    public int getX(int slot) {
+        return xs[slot];
+    }
+
+    /**
+     * Returns the Y position of the monster in a slot
+     * @param slot The slot of the monster
+     * @return the Y position of the monster
+     */
+    public int getY(int slot) {
+        return ys[slot];
+    }
+
+    /**
+     * Returns the X position the monster in a slot had at the start of the
+     * current tick
+     * @param slot The slot of the monster
+     * @return the previous X position of the monster
+     */
+    public int getPrevX(int slot) {
+        return prevXs[slot];
+    }
+
+    /**
+     * Returns the Y position the monster in a slot had at the start of the
+     * current tick
+     * @param slot The slot of the monster
+     * @return the previous Y position of the monster
+     */
+    public int getPrevY(int slot) {
+        return prevYs[slot];
+    }
+
+    /**
+     * Remembers the current position of every monster as its position at the
+     * start of a tick. Called by the engine before each real-time tick.
+     */
+    public void savePositions() {
+        System.arraycopy(xs, 0, prevXs, 0, size);
+        System.arraycopy(ys, 0, prevYs, 0, size);
+    }
+
+    /**
+     * Returns the current health of the monster in a slot
+     * @param slot The slot of the monster
+     * @return the current health of the monster
+     */
+    public int getHealth(int slot) {
+        return health[slot];
+    }
+
+    /**
+     * Returns the maximum health of the monster in a slot
+     * @param slot The slot of the monster
+     * @return the maximum health of the monster
+     */
+    public int getMaxHealth(int slot) {
+        return maxHealth[slot];
+    }
+
+    /**
+     * Sets the position of the monster in a slot
+     * @param slot The slot of the monster
+     * @param x The new X position
+     * @param y The new Y position
+     */
+    public void setPosition(int slot, int x, int y) {
+        if (occupancy != null)
+            occupancy.move(xs[slot], ys[slot], x, y, ids[slot]);
+        xs[slot] = x;
+        ys[slot] = y;
+    }
+
+    /**
+     * Changes the health of the monster in a slot, limiting it to its maximum
+     * health in the same way as Entity.changeHealth
+     * @param slot The slot of the monster
+     * @param change The change in health, negative to damage the monster
+     */
+    public void changeHealth(int slot, int change) {
+        health[slot] += change;
+        if (health[slot] > maxHealth[slot])
+            health[slot] = maxHealth[slot];
+    }
+}
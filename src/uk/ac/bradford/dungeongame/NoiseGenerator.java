@@ -0,0 +1,40 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Random;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The NoiseGenerator class is the simplest LevelGenerator: each tile is made a
+ * wall with a fixed chance, independently of its neighbours, and is otherwise
+ * a floor.
+ * @author prtrundl
+ */
+public class NoiseGenerator implements LevelGenerator {
+
+    private final double wallChance;
+
+    /**
+     * Creates a generator that uses GameEngine.WALL_CHANCE
+     */
+    public NoiseGenerator() {
+        this(GameEngine.WALL_CHANCE);
+    }
+
+    /**
+     * Creates a generator with a given chance of each tile being a wall
+     * @param wallChance The chance of a wall, from 0.0 (none) to 1.0 (all walls)
+     */
+    public NoiseGenerator(double wallChance) {
+        this.wallChance = wallChance;
+    }
+
+    @Override
+    public TileGrid generate(int width, int height, Random r) {
+        TileGrid grid = new TileGrid(width, height);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                if (r.nextDouble() >= wallChance)
+                    grid.set(x, y, TileType.FLOOR);
+        return grid;
+    }
+}
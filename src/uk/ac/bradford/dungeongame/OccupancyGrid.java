@@ -0,0 +1,135 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+
+/**
+ * The OccupancyGrid class records which entity, if any, is standing in each tile
+ * of a level, so that finding the entity in a tile is a single array access
+ * instead of a search through every monster. Monsters are recorded by their
+ * MonsterStore id and the player by the PLAYER value. Only one entity can occupy
+ * a tile at a time. The grid is kept up to date by Entity.setPosition and by the
+ * MonsterStore it is attached to.
+ * @author prtrundl
+ */
+public class OccupancyGrid {
+
+    /**
+     * Returned by get for a tile with nothing in it
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * The occupant value used for the player
+     */
+    public static final int PLAYER = -2;
+
+    private final int width;
+    private final int height;
+
+    /**
+     * The occupant of each tile, stored row by row in the same order as TileGrid
+     */
+    private final int[] cells;
+
+    /**
+     * Creates an empty grid for a level of the given size
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     */
+    public OccupancyGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        cells = new int[width * height];
+        Arrays.fill(cells, EMPTY);
+    }
+
+    /**
+     * Empties every tile
+     */
+    public void clear() {
+        Arrays.fill(cells, EMPTY);
+    }
+
+    /**
+     * Returns the occupant of a tile
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return a monster id, PLAYER, or EMPTY if nothing is in the tile
+     */
+    public int get(int x, int y) {
+        return cells[y * width + x];
+    }
+
+    /**
+     * Checks whether a tile has nothing in it
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is empty
+     */
+    public boolean isEmpty(int x, int y) {
+        return cells[y * width + x] == EMPTY;
+    }
+
+    /**
+     * Records an entity as standing in a tile
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @param occupant A monster id or PLAYER
+     */
+    public void put(int x, int y, int occupant) {
+        cells[y * width + x] = occupant;
+    }
+
+    /**
+     * Empties a tile, but only if it is held by the given occupant so that a
+     * stale position cannot remove another entity
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @param occupant The monster id or PLAYER expected in the tile
+     */
+    public void remove(int x, int y, int occupant) {
+        int i = y * width + x;
+        if (cells[i] == occupant)
+            cells[i] = EMPTY;
+    }
+
+    /**
+     * Moves an occupant from one tile to another
+     * @param fromX The X co-ordinate of the old tile
+     * @param fromY The Y co-ordinate of the old tile
+     * @param toX The X co-ordinate of the new tile
+     * @param toY The Y co-ordinate of the new tile
+     * @param occupant The monster id or PLAYER being moved
+     */
+    public void move(int fromX, int fromY, int toX, int toY, int occupant) {
+        remove(fromX, fromY, occupant);
+        put(toX, toY, occupant);
+    }
+
+    /**
+     * Finds every occupant within a square radius (Chebyshev distance) of a tile,
+     * not including the tile itself. Only the tiles around the centre are
+     * examined, so the cost depends on the radius and not on the number of
+     * entities in the level.
+     * @param x The X co-ordinate of the centre tile
+     * @param y The Y co-ordinate of the centre tile
+     * @param r The radius in tiles
+     * @param out An array the occupants are written to, which should be at least
+     * (2r+1)*(2r+1) long to hold every possible occupant
+     * @return the number of occupants written to out
+     */
+    public int within(int x, int y, int r, int[] out) {
+        int count = 0;
+        int minX = Math.max(0, x - r), maxX = Math.min(width - 1, x + r);
+        int minY = Math.max(0, y - r), maxY = Math.min(height - 1, y + r);
+        for (int j = minY; j <= maxY; j++) {
+            int row = j * width;
+            for (int i = minX; i <= maxX; i++) {
+                int occupant = cells[row + i];
+                if (occupant != EMPTY && (i != x || j != y) && count < out.length)
+                    out[count++] = occupant;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.bradford.dungeongame;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the latency statistics of one timed phase, as returned through
+ * JMX by TurnMetrics. Times are in nanoseconds.
+ * @author prtrundl
+ */
+public class PhaseStats {
+
+    private final long count;
+    private final long p50;
+    private final long p99;
+    private final long max;
+
+    /**
+     * Creates a snapshot
+     * @param count The number of times recorded
+     * @param p50 The median time
+     * @param p99 The 99th percentile time
+     * @param max The longest time
+     */
+    @ConstructorProperties({"count", "p50", "p99", "max"})
+    public PhaseStats(long count, long p50, long p99, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * @return the number of times recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the median time in nanoseconds
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * @return the 99th percentile time in nanoseconds
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * @return the longest time in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,116 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The SaveFile class writes and reads complete game states as compact binary
+ * files. The state is copied straight between one buffer and the engine's
+ * arrays (tiles, monster positions and health, and the changed chunks of a
+ * chunked level), and the buffer is written or read with a single channel
+ * operation, so saving and loading take about as long as copying the bytes,
+ * with no object-by-object serialisation. Files are not memory-mapped, because
+ * a mapping keeps the file locked on some systems until it is garbage
+ * collected, which makes the next save of the same file fail.
+ * <p>
+ * A save is written to a temporary file next to the real one, forced to disk
+ * and then moved over the real file, so a crash while saving leaves the
+ * previous save intact.
+ * <p>
+ * A file starts with a header: the magic number, the format version and the
+ * length of the state that follows. All values are little-endian. Files written
+ * with a different version are refused rather than misread; when the format
+ * changes, VERSION is increased and GameEngine.readState handles each version.
+ * @author prtrundl
+ */
+public class SaveFile {
+
+    /**
+     * The first four bytes of every save file ("DUNG")
+     */
+    static final int MAGIC = 0x474E5544;
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The size of the header: magic number, version and state length
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * The name added to a save file's name for the temporary file it is
+     * written to before being moved into place
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Saves the state of a game to a file, replacing the file if it exists
+     * @param engine The engine to save
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(GameEngine engine, Path file) throws IOException {
+        int length = engine.stateSize();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(length);
+        engine.writeState(buffer);
+        buffer.flip();
+        Path temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads a game saved by save into an engine, replacing its current game.
+     * The engine is only changed once the whole file has been read.
+     * @param engine The engine to load into
+     * @param file The file to read
+     * @throws IOException if the file cannot be read, is not a save file, was
+     * written with an unsupported version or is damaged
+     */
+    public static void load(GameEngine engine, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                throw new IOException("not a dungeon save file: " + file);
+            ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining())
+                if (channel.read(buffer) < 0)
+                    throw new IOException("truncated save file: " + file);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("not a dungeon save file: " + file);
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported save file version " + version + ": " + file);
+            int length = buffer.getInt();
+            if (length != buffer.remaining())
+                throw new IOException("truncated save file: " + file);
+            try {
+                engine.readState(buffer, version);
+            } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException("damaged save file: " + file, e);
+            }
+        }
+    }
+}
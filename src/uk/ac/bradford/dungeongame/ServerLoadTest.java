@@ -0,0 +1,129 @@
+package uk.ac.bradford.dungeongame;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ServerLoadTest class measures a GameServer under load. It starts a
+ * server in the same program and connects many clients to it at once, each on
+ * its own thread, which all play a number of random moves as fast as the
+ * server replies. It then prints the throughput in turns per second, the time
+ * the server spent on each turn and the round trip time seen by the clients.
+ * @author prtrundl
+ */
+public class ServerLoadTest {
+
+    /**
+     * The stack size requested for client threads
+     */
+    private static final long CLIENT_STACK_SIZE = 256 * 1024;
+
+    /**
+     * The seed used to choose each client's moves, so a run can be repeated
+     */
+    private static final long MOVE_SEED = 123;
+
+    private static final String[] MOVES = { "left", "right", "up", "down" };
+
+    /**
+     * Runs the load test and prints the results.
+     * @param args Optional number of clients (default 1000) and number of
+     * turns each client plays (default 200)
+     * @throws IOException if the server cannot be started
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int turns = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        GameServer server = new GameServer(0, clients, GameServer.DEFAULT_IDLE_MILLIS);
+        server.start();
+        int port = server.getPort();
+        LatencyHistogram[] roundTrips = new LatencyHistogram[clients];
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            LatencyHistogram h = roundTrips[c] = new LatencyHistogram();
+            long seed = MOVE_SEED + c;
+            Thread t = new Thread(null, () -> {
+                try {
+                    play(port, turns, seed, h, ready, go);
+                } catch (IOException | InterruptedException e) {
+                    failed.incrementAndGet();
+                } finally {
+                    ready.countDown();      //in case the client failed before it was ready
+                    done.countDown();
+                }
+            }, "load-client-" + c, CLIENT_STACK_SIZE);
+            t.setDaemon(true);
+            t.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        LatencyHistogram roundTrip = new LatencyHistogram();
+        for (LatencyHistogram h : roundTrips)
+            roundTrip.add(h);
+        LatencyHistogram turn = server.getTurnLatency();
+        server.stop();
+        System.out.println(clients + " clients, " + server.getTurns() + " turns in " + (elapsed / 1000000)
+                + " ms (" + (long) (server.getTurns() / (elapsed / 1e9)) + " turns/s), "
+                + failed.get() + " clients failed, " + server.getRejected() + " rejected, "
+                + server.getEvicted() + " evicted, " + server.getAcceptFailures() + " accept failures");
+        System.out.println("server turn latency p50 " + turn.getPercentile(50) / 1000 + " us, p99 "
+                + turn.getPercentile(99) / 1000 + " us, max " + turn.getMax() / 1000 + " us");
+        System.out.println("client round trip p50 " + roundTrip.getPercentile(50) / 1000 + " us, p99 "
+                + roundTrip.getPercentile(99) / 1000 + " us, max " + roundTrip.getMax() / 1000 + " us");
+    }
+
+    /**
+     * Connects one client, waits for every other client to connect, then plays
+     * random moves and times the reply to each
+     * @param port The port of the server
+     * @param turns The number of moves to play
+     * @param seed The seed used to choose the moves
+     * @param roundTrips Where the time from sending each move to reading its
+     * reply is recorded
+     * @param ready Counted down once the client has connected
+     * @param go Waited on before the first move
+     * @throws IOException if the connection fails or the server turns the client away
+     * @throws InterruptedException if interrupted while waiting to start
+     */
+    private static void play(int port, int turns, long seed, LatencyHistogram roundTrips,
+            CountDownLatch ready, CountDownLatch go) throws IOException, InterruptedException {
+        Random moves = new Random(seed);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 256);
+            OutputStream out = socket.getOutputStream();
+            String welcome = in.readLine();
+            if (welcome == null || !welcome.startsWith("welcome"))
+                throw new IOException("not accepted: " + welcome);
+            ready.countDown();
+            go.await();
+            for (int t = 0; t < turns; t++) {
+                byte[] move = (MOVES[moves.nextInt(MOVES.length)] + "\n").getBytes(StandardCharsets.US_ASCII);
+                long start = System.nanoTime();
+                out.write(move);
+                String reply = in.readLine();
+                roundTrips.record(System.nanoTime() - start);
+                if (reply == null || !reply.startsWith("ok"))
+                    throw new IOException("bad reply: " + reply);
+            }
+            out.write("quit\n".getBytes(StandardCharsets.US_ASCII));
+            in.readLine();
+        }
+    }
+}
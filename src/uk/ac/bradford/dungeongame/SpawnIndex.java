@@ -0,0 +1,160 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The SpawnIndex class keeps track of the free tiles in a level that the player
+ * or monsters can be spawned in. Free tiles are stored as tile indexes (see
+ * TileGrid.index) in a dense int array, and a second array maps each tile to its
+ * slot in the dense array. Adding, removing a given tile and taking a random tile
+ * (without replacement) are all constant time, because a removed tile is replaced
+ * by the last tile in the dense array.
+ * @author prtrundl
+ */
+public class SpawnIndex {
+
+    /**
+     * The width of the level, used to convert between tile indexes and positions
+     */
+    private final int width;
+
+    /**
+     * The free tiles, packed at the start of the array
+     */
+    private final int[] cells;
+
+    /**
+     * For every tile in the level, its slot in cells or -1 if it is not free
+     */
+    private final int[] slots;
+
+    /**
+     * The number of free tiles
+     */
+    private int size;
+
+    /**
+     * Creates an empty index for a level of the given size
+     * @param width The width of the level in tiles
+     * @param height The height of the level in tiles
+     */
+    public SpawnIndex(int width, int height) {
+        this.width = width;
+        cells = new int[width * height];
+        slots = new int[width * height];
+        Arrays.fill(slots, -1);
+    }
+
+    /**
+     * Removes every tile from the index
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            slots[cells[i]] = -1;
+        size = 0;
+    }
+
+    /**
+     * Clears the index and adds every spawnable tile of a level to it
+     * @param grid The level to take spawnable tiles from, which must be the same
+     * size as this index
+     */
+    public void fill(TileGrid grid) {
+        clear();
+        for (int y = 0; y < grid.getHeight(); y++)
+            for (int x = 0; x < grid.getWidth(); x++)
+                if (grid.isSpawnable(x, y))
+                    add(x, y);
+    }
+
+    /**
+     * Returns the number of free tiles
+     * @return the number of tiles in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether a tile is free
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is in the index
+     */
+    public boolean contains(int x, int y) {
+        return slots[y * width + x] >= 0;
+    }
+
+    /**
+     * Adds a tile to the index, if it is not already there
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     */
+    public void add(int x, int y) {
+        int cell = y * width + x;
+        if (slots[cell] < 0) {
+            cells[size] = cell;
+            slots[cell] = size++;
+        }
+    }
+
+    /**
+     * Removes a tile from the index, for example when something is placed in it
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile was in the index
+     */
+    public boolean remove(int x, int y) {
+        int cell = y * width + x;
+        int slot = slots[cell];
+        if (slot < 0)
+            return false;
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Removes a random tile from the index and returns it
+     * @param rng The random number generator used to choose the tile
+     * @return the tile index of the chosen tile, or -1 if the index is empty
+     */
+    public int take(Random rng) {
+        if (size == 0)
+            return -1;
+        int slot = rng.nextInt(size);
+        int cell = cells[slot];
+        removeSlot(slot);
+        return cell;
+    }
+
+    /**
+     * Returns the X co-ordinate of a tile index
+     * @param cell A tile index returned by take
+     * @return the X co-ordinate of the tile
+     */
+    public int xOf(int cell) {
+        return cell % width;
+    }
+
+    /**
+     * Returns the Y co-ordinate of a tile index
+     * @param cell A tile index returned by take
+     * @return the Y co-ordinate of the tile
+     */
+    public int yOf(int cell) {
+        return cell / width;
+    }
+
+    /**
+     * Removes the tile in a slot by moving the last tile into its place
+     * @param slot The slot to empty
+     */
+    private void removeSlot(int slot) {
+        int cell = cells[slot];
+        int last = cells[--size];
+        cells[slot] = last;
+        slots[last] = slot;
+        slots[cell] = -1;
+    }
+}
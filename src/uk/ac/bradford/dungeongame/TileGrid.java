@@ -0,0 +1,246 @@
+package uk.ac.bradford.dungeongame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import uk.ac.bradford.dungeongame.GameEngine.TileType;
+
+/**
+ * The TileGrid class stores the tiles of a dungeon level in a single flat,
+ * row-major array of bytes. Each byte holds the TileType of a tile in its lowest
+ * two bits and precomputed property flags (passable, spawnable, opaque) in the
+ * bits above, so checking a tile's type or a property is a single array access.
+ * Tiles are addressed with X (column) and Y (row) co-ordinates, the same as the
+ * positions of Entity objects.
+ * @author prtrundl
+ */
+public class TileGrid {
+
+    /**
+     * Flag set for tiles that the player and monsters can move into
+     */
+    public static final int PASSABLE = 0x04;
+
+    /**
+     * Flag set for tiles that the player and monsters can be spawned in
+     */
+    public static final int SPAWNABLE = 0x08;
+
+    /**
+     * Flag set for tiles that block line of sight
+     */
+    public static final int OPAQUE = 0x10;
+
+    /**
+     * Mask for the bits of a cell that hold the TileType ordinal
+     */
+    private static final int TYPE_MASK = 0x03;
+
+    /**
+     * Cached copy of TileType.values() so decoding a cell does not allocate
+     */
+    private static final TileType[] TYPES = TileType.values();
+
+    /**
+     * The encoded cell value (type ordinal and flags) for each TileType, indexed
+     * by ordinal
+     */
+    private static final byte[] ENCODED = new byte[TYPES.length];
+
+    static {
+        ENCODED[TileType.WALL.ordinal()] = (byte) (TileType.WALL.ordinal() | OPAQUE);
+        ENCODED[TileType.FLOOR.ordinal()] = (byte) (TileType.FLOOR.ordinal() | PASSABLE | SPAWNABLE);
+        ENCODED[TileType.CHEST.ordinal()] = (byte) (TileType.CHEST.ordinal() | PASSABLE | SPAWNABLE);
+        ENCODED[TileType.STAIRS.ordinal()] = (byte) (TileType.STAIRS.ordinal() | PASSABLE);
+    }
+
+    /**
+     * The width of the grid, measured in tiles
+     */
+    private final int width;
+
+    /**
+     * The height of the grid, measured in tiles
+     */
+    private final int height;
+
+    /**
+     * The encoded tiles, one byte per tile, stored row by row
+     */
+    private final byte[] cells;
+
+    /**
+     * Counts changes made to the tiles, so that anything cached from this grid
+     * (such as a pre-rendered image) can tell when it is out of date
+     */
+    private int version;
+
+    /**
+     * Creates a grid of the given size with every tile set to WALL
+     * @param width The width of the grid in tiles
+     * @param height The height of the grid in tiles
+     */
+    public TileGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        cells = new byte[width * height];
+        Arrays.fill(cells, ENCODED[TileType.WALL.ordinal()]);
+    }
+
+    /**
+     * Creates a grid holding the same tiles as another grid. Changes to either
+     * grid afterwards do not affect the other.
+     * @param other The grid to copy
+     */
+    public TileGrid(TileGrid other) {
+        this.width = other.width;
+        this.height = other.height;
+        cells = other.cells.clone();
+    }
+
+    /**
+     * Replaces every tile with the tiles of another grid of the same size,
+     * without allocating a new array
+     * @param other The grid to copy
+     */
+    public void copyFrom(TileGrid other) {
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+        version++;
+    }
+
+    /**
+     * Returns the width of this grid
+     * @return the width of the grid in tiles
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of this grid
+     * @return the height of the grid in tiles
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Checks whether a position lies inside this grid
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the position is inside the grid
+     */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Converts a position to an index into the flat array of tiles
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return the index of the tile
+     */
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Returns the type of the tile at a position
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return the TileType of the tile
+     */
+    public TileType get(int x, int y) {
+        return TYPES[cells[y * width + x] & TYPE_MASK];
+    }
+
+    /**
+     * Returns the type of the tile at an index
+     * @param index The index of the tile, as returned by index(x, y)
+     * @return the TileType of the tile
+     */
+    public TileType get(int index) {
+        return TYPES[cells[index] & TYPE_MASK];
+    }
+
+    /**
+     * Changes the type of the tile at a position, updating its property flags
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @param type The new TileType for the tile
+     */
+    public void set(int x, int y, TileType type) {
+        cells[y * width + x] = ENCODED[type.ordinal()];
+        version++;
+    }
+
+    /**
+     * Writes every tile to a buffer, one byte per tile in row order. Used when
+     * saving a game.
+     * @param buffer The buffer to write to, which must have width * height bytes left
+     */
+    public void writeCells(ByteBuffer buffer) {
+        buffer.put(cells);
+    }
+
+    /**
+     * Replaces every tile with tiles read from a buffer written by writeCells.
+     * The property flags are worked out again from each tile's type, so saves
+     * stay correct if the flags of a tile type change.
+     * @param buffer The buffer to read from, which must have width * height bytes left
+     */
+    public void readCells(ByteBuffer buffer) {
+        buffer.get(cells);
+        for (int i = 0; i < cells.length; i++)
+            cells[i] = ENCODED[cells[i] & TYPE_MASK];
+        version++;
+    }
+
+    /**
+     * Returns a number that changes every time a tile in this grid is changed
+     * @return the current version of the grid
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks whether the tile at a position has all of the given property flags
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @param flags One or more of PASSABLE, SPAWNABLE and OPAQUE combined with |
+     * @return true if the tile has all of the flags
+     */
+    public boolean is(int x, int y, int flags) {
+        return (cells[y * width + x] & flags) == flags;
+    }
+
+    /**
+     * Checks whether the player and monsters can move into the tile at a position
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is passable
+     */
+    public boolean isPassable(int x, int y) {
+        return (cells[y * width + x] & PASSABLE) != 0;
+    }
+
+    /**
+     * Checks whether the player or a monster can be spawned in the tile at a position
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is a suitable spawn point
+     */
+    public boolean isSpawnable(int x, int y) {
+        return (cells[y * width + x] & SPAWNABLE) != 0;
+    }
+
+    /**
+     * Checks whether the tile at a position blocks line of sight
+     * @param x The X co-ordinate of the tile
+     * @param y The Y co-ordinate of the tile
+     * @return true if the tile is opaque
+     */
+    public boolean isOpaque(int x, int y) {
+        return (cells[y * width + x] & OPAQUE) != 0;
+    }
+}
@@ -0,0 +1,309 @@
+package uk.ac.bradford.dungeongame;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * The Tileset class loads the images (sprites) the game is drawn with. Each
+ * sprite is either a whole image file or one cell of an atlas, an image file
+ * holding a grid of sprites of the tile size. Image files are looked for on
+ * the classpath under RESOURCE_DIR, so they are found inside the jar in dist,
+ * and otherwise in the ASSET_DIR folder of the working directory.
+ * <p>
+ * Files start loading on background threads, several at once, as soon as they
+ * are added, and each file is only ever decoded once however many tilesets use
+ * it. A tileset also packs its sprites into a single image compatible with a
+ * screen's graphics configuration, once per configuration, so every window
+ * drawing to the same screen shares the same converted images.
+ * @author prtrundl
+ */
+public class Tileset {
+
+    /**
+     * The classpath folder image files are loaded from
+     */
+    public static final String RESOURCE_DIR = "/assets/";
+
+    /**
+     * The folder image files are loaded from if they are not on the classpath
+     */
+    public static final String ASSET_DIR = "assets";
+
+    /**
+     * The sprites used by the game, each loaded from a file of the same name
+     * with .png added
+     */
+    public static final String[] GAME_SPRITES = { "floor", "wall", "player", "monster", "stairs" };
+
+    /**
+     * The number of image files decoded at the same time
+     */
+    private static final int LOADER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Background threads shared by all tilesets that decode image files
+     */
+    private static final ExecutorService LOADERS = Executors.newFixedThreadPool(LOADER_THREADS, r -> {
+        Thread t = new Thread(r, "dungeon-asset-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Every image file requested so far, by file name, decoded or being decoded
+     */
+    private static final Map<String, Future<BufferedImage>> FILES = new ConcurrentHashMap<>();
+
+    private static Tileset defaultTileset;
+
+    private final int tileWidth;
+    private final int tileHeight;
+
+    /**
+     * Where each sprite comes from, in the order the sprites were added
+     */
+    private final Map<String, Sprite> sprites = new LinkedHashMap<>();
+
+    /**
+     * The decoded sprites, or null if they have not been asked for since a
+     * sprite was last added
+     */
+    private Map<String, BufferedImage> images;
+
+    /**
+     * The sprites packed into one compatible image for each graphics configuration
+     */
+    private final Map<GraphicsConfiguration, Map<String, BufferedImage>> compatible = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty tileset
+     * @param tileWidth The width of each sprite in pixels
+     * @param tileHeight The height of each sprite in pixels
+     */
+    public Tileset(int tileWidth, int tileHeight) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Returns the tileset holding the GAME_SPRITES, which is shared by every
+     * Canvas. The first call starts loading the images, so calling this early
+     * lets them load while the rest of the program starts.
+     * @return the default tileset
+     */
+    public static synchronized Tileset getDefault() {
+        if (defaultTileset == null) {
+            defaultTileset = new Tileset(GameGUI.TILE_WIDTH, GameGUI.TILE_HEIGHT);
+            for (String name : GAME_SPRITES)
+                defaultTileset.addSprite(name, name + ".png");
+        }
+        return defaultTileset;
+    }
+
+    /**
+     * Adds a sprite that is a whole image file, which must be the tile size,
+     * and starts loading the file if it is not already loaded
+     * @param name The name the sprite is looked up by
+     * @param file The name of the image file
+     */
+    public synchronized void addSprite(String name, String file) {
+        sprites.put(name, new Sprite(file, -1, load(file)));
+        changed();
+    }
+
+    /**
+     * Adds the sprites of an atlas and starts loading the atlas file if it is
+     * not already loaded. The atlas is a grid of cells of the tile size, named
+     * from left to right and then top to bottom.
+     * @param file The name of the image file
+     * @param names The name of each cell, or null to skip a cell
+     */
+    public synchronized void addAtlas(String file, String... names) {
+        Future<BufferedImage> image = load(file);
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null)
+                sprites.put(names[i], new Sprite(file, i, image));
+        }
+        changed();
+    }
+
+    /**
+     * Forgets the images made from the old sprites so they are made again
+     */
+    private void changed() {
+        images = null;
+        compatible.clear();
+    }
+
+    /**
+     * Returns every sprite as it was decoded, waiting for any that are still
+     * loading. Sprites whose file could not be loaded are left out.
+     * @return the sprites by name, which must not be changed
+     */
+    public synchronized Map<String, BufferedImage> getImages() {
+        if (images == null) {
+            Map<String, BufferedImage> decoded = new LinkedHashMap<>();
+            for (Map.Entry<String, Sprite> e : sprites.entrySet()) {
+                BufferedImage image = e.getValue().decode();
+                if (image != null)
+                    decoded.put(e.getKey(), image);
+            }
+            images = Collections.unmodifiableMap(decoded);
+        }
+        return images;
+    }
+
+    /**
+     * Returns every sprite converted for a graphics configuration, so that it
+     * can be drawn with a fast (and usually hardware accelerated) copy. The
+     * sprites are packed into one atlas image and each is a view of part of
+     * it; the atlas is only made once for each configuration.
+     * @param gc The graphics configuration the sprites will be drawn to
+     * @return the sprites by name, which must not be changed
+     */
+    public Map<String, BufferedImage> getImages(GraphicsConfiguration gc) {
+        Map<String, BufferedImage> decoded = getImages();
+        return compatible.computeIfAbsent(gc, c -> pack(decoded, c));
+    }
+
+    /**
+     * Returns one sprite as it was decoded, waiting for it if it is still loading
+     * @param name The name of the sprite
+     * @return the sprite, or null if there is no such sprite or its file could
+     * not be loaded
+     */
+    public BufferedImage getImage(String name) {
+        return getImages().get(name);
+    }
+
+    /**
+     * Draws sprites into one image compatible with a graphics configuration,
+     * in a grid of roughly equal width and height
+     * @param decoded The sprites to pack
+     * @param gc The graphics configuration to make the image for
+     * @return views of the packed image, by sprite name
+     */
+    private Map<String, BufferedImage> pack(Map<String, BufferedImage> decoded, GraphicsConfiguration gc) {
+        Map<String, BufferedImage> packed = new LinkedHashMap<>();
+        if (decoded.isEmpty())
+            return Collections.unmodifiableMap(packed);
+        int columns = (int) Math.ceil(Math.sqrt(decoded.size()));
+        int rows = (decoded.size() + columns - 1) / columns;
+        BufferedImage atlas = gc.createCompatibleImage(columns * tileWidth, rows * tileHeight,
+                Transparency.TRANSLUCENT);
+        Graphics2D g2 = atlas.createGraphics();
+        int i = 0;
+        for (Map.Entry<String, BufferedImage> e : decoded.entrySet()) {
+            int x = i % columns * tileWidth, y = i / columns * tileHeight;
+            g2.drawImage(e.getValue(), x, y, null);
+            packed.put(e.getKey(), atlas.getSubimage(x, y, tileWidth, tileHeight));
+            i++;
+        }
+        g2.dispose();
+        return Collections.unmodifiableMap(packed);
+    }
+
+    /**
+     * Starts decoding an image file on the loader threads, unless it has been
+     * requested before
+     * @param file The name of the image file
+     * @return the decoded image, when it is ready
+     */
+    private static Future<BufferedImage> load(String file) {
+        return FILES.computeIfAbsent(file, f -> LOADERS.submit(() -> read(f)));
+    }
+
+    /**
+     * Decodes an image file from the classpath, or from the asset folder if it
+     * is not on the classpath
+     * @param file The name of the image file
+     * @return the decoded image
+     * @throws IOException if the file cannot be found or decoded
+     */
+    static BufferedImage read(String file) throws IOException {
+        URL resource = Tileset.class.getResource(RESOURCE_DIR + file);
+        BufferedImage image = resource != null ? ImageIO.read(resource) : ImageIO.read(new File(ASSET_DIR, file));
+        if (image == null)
+            throw new IOException("unknown image format: " + file);
+        return image;
+    }
+
+    /**
+     * Where one sprite comes from: a whole file, or one cell of an atlas file
+     */
+    private class Sprite {
+
+        private final String file;
+        private final int cell;
+        private final Future<BufferedImage> image;
+
+        /**
+         * Creates a sprite
+         * @param file The name of the image file, used in log events
+         * @param cell The position of the sprite's cell in the atlas, or -1 if
+         * the sprite is the whole file
+         * @param image The image file being loaded
+         */
+        Sprite(String file, int cell, Future<BufferedImage> image) {
+            this.file = file;
+            this.cell = cell;
+            this.image = image;
+        }
+
+        /**
+         * Waits for the sprite's file and cuts the sprite out of it
+         * @return the sprite, or null if the file could not be loaded or is
+         * too small to hold the cell
+         */
+        BufferedImage decode() {
+            BufferedImage whole;
+            try {
+                whole = image.get();
+            } catch (ExecutionException e) {
+                EventLog log = EventLog.getDefault();
+                log.log(EventLog.ERROR, EventLog.SYSTEM, "image could not be loaded", this);
+                log.log(EventLog.ERROR, EventLog.SYSTEM, "image load failure", e.getCause());
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (cell < 0) {
+                assert whole.getWidth() == tileWidth && whole.getHeight() == tileHeight;
+                return whole;
+            }
+            int columns = whole.getWidth() / tileWidth;
+            int x = columns == 0 ? 0 : cell % columns * tileWidth;
+            int y = columns == 0 ? 0 : cell / columns * tileHeight;
+            if (columns == 0 || y + tileHeight > whole.getHeight()) {
+                EventLog.getDefault().log(EventLog.ERROR, EventLog.SYSTEM, "atlas is too small for sprite", this);
+                return null;
+            }
+            return whole.getSubimage(x, y, tileWidth, tileHeight);
+        }
+
+        /**
+         * Names the sprite in log events. This is only called when an event is
+         * printed, so logging a sprite does not build a string.
+         * @return the file name, followed by the cell for an atlas sprite
+         */
+        @Override
+        public String toString() {
+            return cell < 0 ? file : file + " cell " + cell;
+        }
+    }
+}
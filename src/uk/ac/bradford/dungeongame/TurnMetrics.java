@@ -0,0 +1,145 @@
+package uk.ac.bradford.dungeongame;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The TurnMetrics class times the phases of a game turn, level generation and
+ * painting, keeping a LatencyHistogram for each phase. Timing a phase costs two
+ * calls to System.nanoTime while metrics are enabled and a single check while
+ * they are disabled. The results can be drawn over the game by the Canvas and
+ * read through JMX once the metrics are registered with the platform MBean server.
+ * @author prtrundl
+ */
+public class TurnMetrics implements TurnMetricsMXBean {
+
+    /**
+     * The parts of the game that are timed
+     */
+    public enum Phase {
+        CLEAN_DEAD_MONSTERS("clean dead"),
+        SCROLL_WINDOW("scroll"),
+        FIELD_OF_VIEW("view"),
+        MOVE_MONSTERS("monsters"),
+        STAIRS_CHECK("stairs"),
+        UPDATE_DISPLAY("display"),
+        TURN("turn"),
+        GENERATE_LEVEL("generate"),
+        SPAWN_MONSTERS("spawn"),
+        PAINT("paint");
+
+        /**
+         * Short name used in the overlay and in JMX
+         */
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Cached copy of Phase.values() so the overlay does not allocate one per paint
+     */
+    static final Phase[] PHASES = Phase.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates metrics with an empty histogram for each phase
+     */
+    public TurnMetrics() {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Marks the start of a timed phase
+     * @return the start time to pass to stop or lap, or 0 if metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time taken by a phase
+     * @param phase The phase that has finished
+     * @param start The time returned by start or lap when the phase began
+     */
+    public void stop(Phase phase, long start) {
+        if (start != 0)
+            histograms[phase.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records the time taken by a phase and starts timing the next one
+     * @param phase The phase that has finished
+     * @param start The time returned by start or lap when the phase began
+     * @return the start time for the next phase, or 0 if metrics are disabled
+     */
+    public long lap(Phase phase, long start) {
+        if (start == 0)
+            return 0;
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Returns the histogram for a phase
+     * @param phase The phase
+     * @return the histogram of times for the phase
+     */
+    public LatencyHistogram get(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, PhaseStats> getPhases() {
+        Map<String, PhaseStats> phases = new LinkedHashMap<>();
+        for (Phase p : PHASES) {
+            LatencyHistogram h = get(p);
+            phases.put(p.label, new PhaseStats(h.getCount(), h.getPercentile(50),
+                    h.getPercentile(99), h.getMax()));
+        }
+        return phases;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram h : histograms)
+            h.reset();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server so they can be read
+     * with tools such as JConsole
+     * @param name The name to register under, which must be unique in the JVM
+     * @return true if the metrics were registered
+     */
+    public boolean register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("uk.ac.bradford.dungeongame:type=TurnMetrics,name=" + ObjectName.quote(name)));
+            return true;
+        } catch (JMException e) {
+            EventLog.getDefault().log(EventLog.WARN, EventLog.SYSTEM, "could not register turn metrics", e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package uk.ac.bradford.dungeongame;
+
+import java.util.Map;
+
+/**
+ * The management interface of TurnMetrics, through which JMX clients read the
+ * latency of each phase of a turn.
+ * @author prtrundl
+ */
+public interface TurnMetricsMXBean {
+
+    /**
+     * Checks whether phases are being timed
+     * @return true if metrics are enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns timing of phases on or off
+     * @param enabled true to time phases
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns the latency statistics of every phase, keyed by phase name
+     * @return the statistics of each phase
+     */
+    Map<String, PhaseStats> getPhases();
+
+    /**
+     * Clears every recorded time
+     */
+    void reset();
+}
@@ -0,0 +1,116 @@
+package uk.ac.bradford.dungeongame;
+
+/**
+ * The TurnProcessor class runs game turns on its own thread. It takes player
+ * commands from an InputQueue filled by the input handler, makes the move and
+ * does a turn, so the Swing event thread only has to queue key presses. For each
+ * turn it measures the latency from the key press being queued to the engine
+ * handing the new state to the display.
+ * @author prtrundl
+ */
+public class TurnProcessor {
+
+    private final GameEngine engine;
+    private final InputQueue queue;
+
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Turn statistics: turns done, total input-to-display latency and the
+     * longest latency, both in nanoseconds
+     */
+    private volatile long turns, totalLatency, maxLatency;
+
+    /**
+     * Creates a processor for an engine. Nothing happens until start is called.
+     * @param engine The engine to do turns on
+     * @param queue The queue to take player commands from
+     */
+    public TurnProcessor(GameEngine engine, InputQueue queue) {
+        this.engine = engine;
+        this.queue = queue;
+    }
+
+    /**
+     * Starts the game thread
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this::run, "dungeon-game");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the game thread, waiting for it to finish its current turn
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of turns done
+     * @return the number of turns
+     */
+    public long getTurns() {
+        return turns;
+    }
+
+    /**
+     * Returns the mean time from a command being queued to the display being
+     * updated after its turn
+     * @return the mean latency in nanoseconds, or 0 if no turns have been done
+     */
+    public long getMeanLatencyNanos() {
+        long n = turns;
+        return n == 0 ? 0 : totalLatency / n;
+    }
+
+    /**
+     * Returns the longest time from a command being queued to the display being
+     * updated after its turn
+     * @return the longest latency in nanoseconds
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatency;
+    }
+
+    /**
+     * Body of the game thread: takes each command, makes the move and does a turn
+     */
+    private void run() {
+        while (running) {
+            int command;
+            try {
+                command = queue.take();
+            } catch (InterruptedException e) {
+                break;                      //stopped
+            }
+            if (engine.saveOrLoad(command))
+                continue;                   //loading has updated the display
+            engine.movePlayer(command);
+            engine.doTurn();                //updates the display
+            long latency = System.nanoTime() - queue.getPolledTime();
+            totalLatency += latency;
+            if (latency > maxLatency)
+                maxLatency = latency;
+            turns++;
+        }
+    }
+}